@@ -1,6 +1,7 @@
 package io.github.hapjava.characteristics;
 
 import java.util.concurrent.CompletableFuture;
+import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
@@ -29,6 +30,39 @@ public interface Characteristic {
    */
   void supplyValue(JsonObjectBuilder characteristicBuilder);
 
+  /**
+   * Passes the current value of the characteristic to the sink, which the server uses to write
+   * reads and events without building a JSON object per characteristic. The default implementation
+   * goes through {@link #supplyValue(JsonObjectBuilder)}; implementations should override it to
+   * call the sink directly.
+   *
+   * @param sink the sink to pass the value to.
+   */
+  default void supplyValue(CharacteristicValueSink sink) {
+    JsonObjectBuilder builder = Json.createObjectBuilder();
+    supplyValue(builder);
+    JsonValue value = builder.build().get("value");
+    if (value == null || value == JsonValue.NULL) {
+      sink.nullValue();
+    } else {
+      sink.value(value);
+    }
+  }
+
+  /**
+   * Like {@link #supplyValue(CharacteristicValueSink)}, but does not block while the value is
+   * retrieved. The sink is called before the returned future completes, possibly from another
+   * thread. If the value cannot be retrieved, the future completes exceptionally and the sink is
+   * not called.
+   *
+   * @param sink the sink to pass the value to.
+   * @return a future that completes once the value has been passed to the sink.
+   */
+  default CompletableFuture<Void> supplyValueAsync(CharacteristicValueSink sink) {
+    supplyValue(sink);
+    return CompletableFuture.completedFuture(null);
+  }
+
   /**
    * Creates the JSON representation of the characteristic, in accordance with the HomeKit Accessory
    * Protocol.
@@ -44,4 +78,18 @@ public interface Characteristic {
    * @param jsonValue the JSON serialized value to set.
    */
   void setValue(JsonValue jsonValue);
+
+  /**
+   * Invoked by the remote client, this updates the current value of the characteristic. Unlike
+   * {@link #setValue(JsonValue)}, failures are reported to the caller, so the client can be told
+   * which writes of a batch failed. The default implementation delegates to {@link
+   * #setValue(JsonValue)}.
+   *
+   * @param jsonValue the JSON serialized value to set.
+   * @throws IllegalArgumentException if the value is not valid for this characteristic.
+   * @throws Exception if the value could not be set.
+   */
+  default void updateValue(JsonValue jsonValue) throws Exception {
+    setValue(jsonValue);
+  }
 }
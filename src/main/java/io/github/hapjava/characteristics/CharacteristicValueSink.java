@@ -0,0 +1,36 @@
+package io.github.hapjava.characteristics;
+
+import javax.json.JsonValue;
+
+/**
+ * Receives the current value of a characteristic when it is serialized for a read or an event.
+ * Exactly one of the methods is called per {@link
+ * Characteristic#supplyValue(CharacteristicValueSink)}.
+ */
+public interface CharacteristicValueSink {
+
+  /** The characteristic has no value. */
+  void nullValue();
+
+  /** @param value the boolean value of the characteristic. */
+  void value(boolean value);
+
+  /** @param value the integer value of the characteristic. */
+  void value(int value);
+
+  /** @param value the integer value of the characteristic. */
+  void value(long value);
+
+  /** @param value the floating point value of the characteristic. */
+  void value(double value);
+
+  /** @param value the string value of the characteristic, never null. */
+  void value(String value);
+
+  /**
+   * Fallback for values that have no primitive representation.
+   *
+   * @param value the JSON value of the characteristic.
+   */
+  void value(JsonValue value);
+}
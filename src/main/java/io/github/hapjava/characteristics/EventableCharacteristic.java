@@ -17,4 +17,18 @@ public interface EventableCharacteristic extends Characteristic {
 
   /** Stop listening to changes to this characteristic. */
   void unsubscribe();
+
+  /**
+   * Passes a value that was reported with {@link
+   * HomekitCharacteristicChangeCallback#changedTo(Object)} to the sink, so the event can be sent
+   * without retrieving the value again. The default implementation does not support this, and the
+   * current value is supplied instead.
+   *
+   * @param value the value that was reported.
+   * @param sink the sink to pass the value to.
+   * @return whether the value was passed to the sink.
+   */
+  default boolean supplyChangedValue(Object value, CharacteristicValueSink sink) {
+    return false;
+  }
 }
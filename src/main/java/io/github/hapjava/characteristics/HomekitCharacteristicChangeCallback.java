@@ -17,4 +17,18 @@ public interface HomekitCharacteristicChangeCallback {
    * changes.
    */
   void changed();
+
+  /**
+   * Call instead of {@link #changed()} when the new value is already known. The event is then sent
+   * with the given value rather than by calling the characteristic's getter again.
+   *
+   * <p>The value must be of the characteristic's value type, e.g. a {@code Boolean} for an on/off
+   * state or a {@code Double} for a temperature. For enum characteristics, the enum constant may be
+   * passed as well. A value of another type is ignored, and the getter is called instead.
+   *
+   * @param newValue the new value of the characteristic.
+   */
+  default void changedTo(Object newValue) {
+    changed();
+  }
 }
@@ -1,6 +1,7 @@
 package io.github.hapjava.characteristics.impl.base;
 
 import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.characteristics.CharacteristicValueSink;
 import io.github.hapjava.characteristics.EventableCharacteristic;
 import io.github.hapjava.characteristics.HomekitCharacteristicChangeCallback;
 import java.math.BigDecimal;
@@ -129,7 +130,7 @@ public abstract class BaseCharacteristic<T> implements Characteristic, Eventable
   @Override
   public final void setValue(JsonValue jsonValue) {
     try {
-      setValue(convert(jsonValue));
+      updateValue(jsonValue);
     } catch (Exception e) {
       logger.warn(
           "Error while setting JSON value {} for characteristic {}",
@@ -139,21 +140,67 @@ public abstract class BaseCharacteristic<T> implements Characteristic, Eventable
     }
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public final void updateValue(JsonValue jsonValue) throws Exception {
+    T value;
+    try {
+      value = convert(jsonValue);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException(
+          "Cannot convert " + jsonValue + " for characteristic " + getClass().getName(), e);
+    }
+    setValue(value);
+  }
+
   /** {@inheritDoc} */
   @Override
   public void supplyValue(JsonObjectBuilder builder) {
+    setJsonValue(builder, getCurrentValue());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void supplyValue(CharacteristicValueSink sink) {
+    writeValue(sink, getCurrentValue());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<Void> supplyValueAsync(CharacteristicValueSink sink) {
     CompletableFuture<T> futureValue = getValue();
 
     if (futureValue == null) {
-      setJsonValue(builder, getDefault());
-      return;
+      writeValue(sink, getDefault());
+      return CompletableFuture.completedFuture(null);
+    }
+
+    return futureValue.thenAccept(value -> writeValue(sink, value));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean supplyChangedValue(Object value, CharacteristicValueSink sink) {
+    T changedValue = fromChangedValue(value);
+    if (changedValue == null) {
+      return false;
+    }
+    writeValue(sink, changedValue);
+    return true;
+  }
+
+  private T getCurrentValue() {
+    CompletableFuture<T> futureValue = getValue();
+
+    if (futureValue == null) {
+      return getDefault();
     }
 
     try {
-      setJsonValue(builder, futureValue.get());
+      return futureValue.get();
     } catch (InterruptedException | ExecutionException e) {
       logger.warn("Error retrieving value", e);
-      setJsonValue(builder, getDefault());
+      return getDefault();
     }
   }
 
@@ -177,6 +224,18 @@ public abstract class BaseCharacteristic<T> implements Characteristic, Eventable
    */
   protected abstract T convert(JsonValue jsonValue);
 
+  /**
+   * Converts a value reported with {@link HomekitCharacteristicChangeCallback#changedTo(Object)} to
+   * the type T. The default implementation accepts no values, so the current value is retrieved
+   * instead.
+   *
+   * @param value the reported value.
+   * @return the value as type T, or null if it is not of the characteristic's value type.
+   */
+  protected T fromChangedValue(Object value) {
+    return null;
+  }
+
   /**
    * Update the characteristic value using a new value supplied by the connected client.
    *
@@ -226,4 +285,30 @@ public abstract class BaseCharacteristic<T> implements Characteristic, Eventable
       builder.add("value", value.toString());
     }
   }
+
+  /**
+   * Passes the value to the sink, mirroring {@link #setJsonValue(JsonObjectBuilder, Object)}.
+   *
+   * @param sink The sink to pass the value to
+   * @param value The value to pass
+   */
+  protected void writeValue(CharacteristicValueSink sink, T value) {
+    if (value instanceof Boolean) {
+      sink.value((boolean) (Boolean) value);
+    } else if (value instanceof Double) {
+      sink.value((double) (Double) value);
+    } else if (value instanceof Integer) {
+      sink.value((int) (Integer) value);
+    } else if (value instanceof Long) {
+      sink.value((long) (Long) value);
+    } else if (value instanceof BigInteger) {
+      sink.value(Json.createValue((BigInteger) value));
+    } else if (value instanceof BigDecimal) {
+      sink.value(Json.createValue((BigDecimal) value));
+    } else if (value == null) {
+      sink.nullValue();
+    } else {
+      sink.value(value.toString());
+    }
+  }
 }
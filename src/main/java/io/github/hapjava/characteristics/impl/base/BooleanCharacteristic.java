@@ -59,6 +59,12 @@ public abstract class BooleanCharacteristic extends BaseCharacteristic<Boolean>
     return jsonValue.equals(JsonValue.TRUE);
   }
 
+  /** {@inheritDoc} */
+  @Override
+  protected Boolean fromChangedValue(Object value) {
+    return value instanceof Boolean ? (Boolean) value : null;
+  }
+
   @Override
   public CompletableFuture<Boolean> getValue() {
     return getter.isPresent() ? getter.map(booleanGetter -> booleanGetter.get()).get() : null;
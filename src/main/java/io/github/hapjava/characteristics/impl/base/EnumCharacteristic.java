@@ -84,6 +84,15 @@ public abstract class EnumCharacteristic<T extends CharacteristicEnum>
     }
   }
 
+  /** {@inheritDoc} */
+  @Override
+  protected Integer fromChangedValue(Object value) {
+    if (value instanceof CharacteristicEnum) {
+      return ((CharacteristicEnum) value).getCode();
+    }
+    return value instanceof Integer ? (Integer) value : null;
+  }
+
   /**
    * @return the current value of this characteristic, or null if it has no value or can't be
    *     fetched
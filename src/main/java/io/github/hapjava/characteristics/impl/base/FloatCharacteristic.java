@@ -89,6 +89,12 @@ public abstract class FloatCharacteristic extends BaseCharacteristic<Double> {
     return ((JsonNumber) jsonValue).doubleValue();
   }
 
+  /** {@inheritDoc} */
+  @Override
+  protected Double fromChangedValue(Object value) {
+    return value instanceof Number ? normalize(((Number) value).doubleValue()) : null;
+  }
+
   /**
    * {@inheritDoc}. Calls the getDoubleValue method and applies rounding to the minStep supplied in
    * the constructor.
@@ -98,34 +104,30 @@ public abstract class FloatCharacteristic extends BaseCharacteristic<Double> {
     if (!getter.isPresent()) {
       return null;
     }
+    return getter.get().get().thenApply(d -> d == null ? null : normalize(d));
+  }
+
+  /** Rounds the value to the minStep and clamps it to the range supplied in the constructor. */
+  private double normalize(double value) {
     double rounder = 1 / this.minStep;
-    return getter
-        .get()
-        .get()
-        .thenApply(d -> d == null ? null : Math.round(d * rounder) / rounder)
-        .thenApply(
-            d -> {
-              if (d != null) {
-                if (d < minValue) {
-                  LOGGER.warn(
-                      "Detected value out of range "
-                          + d
-                          + ". Returning min value instead. Characteristic "
-                          + this);
-                  return minValue;
-                }
-                if (d > maxValue) {
-                  LOGGER.warn(
-                      "Detected value out of range "
-                          + d
-                          + ". Returning max value instead. Characteristic "
-                          + this);
-                  return maxValue;
-                }
-                return d;
-              }
-              return null;
-            });
+    double d = Math.round(value * rounder) / rounder;
+    if (d < minValue) {
+      LOGGER.warn(
+          "Detected value out of range "
+              + d
+              + ". Returning min value instead. Characteristic "
+              + this);
+      return minValue;
+    }
+    if (d > maxValue) {
+      LOGGER.warn(
+          "Detected value out of range "
+              + d
+              + ". Returning max value instead. Characteristic "
+              + this);
+      return maxValue;
+    }
+    return d;
   }
 
   @Override
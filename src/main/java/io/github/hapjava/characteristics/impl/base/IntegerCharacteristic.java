@@ -119,4 +119,10 @@ public abstract class IntegerCharacteristic extends BaseCharacteristic<Integer>
   protected Integer convert(JsonValue jsonValue) {
     return ((JsonNumber) jsonValue).intValue();
   }
+
+  /** {@inheritDoc} */
+  @Override
+  protected Integer fromChangedValue(Object value) {
+    return value instanceof Integer ? (Integer) value : null;
+  }
 }
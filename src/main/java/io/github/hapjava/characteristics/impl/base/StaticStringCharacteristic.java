@@ -51,6 +51,12 @@ public class StaticStringCharacteristic extends BaseCharacteristic<String> {
     return ((JsonString) jsonValue).getString();
   }
 
+  /** {@inheritDoc} */
+  @Override
+  protected String fromChangedValue(Object value) {
+    return value instanceof String ? (String) value : null;
+  }
+
   /** {@inheritDoc} */
   @Override
   public void setValue(String value) throws Exception {
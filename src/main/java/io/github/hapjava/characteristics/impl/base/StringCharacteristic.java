@@ -60,6 +60,12 @@ public class StringCharacteristic extends BaseCharacteristic<String> {
     return ((JsonString) jsonValue).getString();
   }
 
+  /** {@inheritDoc} */
+  @Override
+  protected String fromChangedValue(Object value) {
+    return value instanceof String ? (String) value : null;
+  }
+
   /** {@inheritDoc} */
   @Override
   public void setValue(String value) throws Exception {
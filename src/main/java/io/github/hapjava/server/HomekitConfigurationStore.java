@@ -0,0 +1,27 @@
+package io.github.hapjava.server;
+
+import io.github.hapjava.server.impl.HomekitRoot;
+
+/**
+ * Persistent storage for the configuration number (c#) advertised for a root, together with a
+ * fingerprint of the accessory metadata it was advertised for. Implement this interface and pass it
+ * to {@link HomekitRoot#setConfigurationStore(HomekitConfigurationStore)} to have the configuration
+ * number incremented automatically, whenever the accessories, services or characteristics really
+ * changed.
+ */
+public interface HomekitConfigurationStore {
+
+  /** @return the saved configuration number, or 0 if none was saved */
+  int getConfigurationIndex();
+
+  /** @return the saved fingerprint, or null if none was saved */
+  String getFingerprint();
+
+  /**
+   * Saves the configuration number and the fingerprint of the metadata it was advertised for.
+   *
+   * @param configurationIndex the configuration number
+   * @param fingerprint the fingerprint of the accessory metadata
+   */
+  void save(int configurationIndex, String fingerprint);
+}
@@ -0,0 +1,34 @@
+package io.github.hapjava.server;
+
+import io.github.hapjava.server.impl.HomekitRoot;
+import java.util.Map;
+
+/**
+ * Persistent storage for the instance ids (iids) of the services and characteristics of each
+ * accessory. Iids are assigned by a key made of the service type, the characteristic type and their
+ * position among others of the same type, and once assigned they do not change. Adding a
+ * characteristic therefore does not shift the iids of the others, so controllers can keep the
+ * accessory database they cached. Implement this interface and pass it to {@link
+ * HomekitRoot#setIidStore(HomekitIidStore)} to keep iids stable across restarts as well.
+ */
+public interface HomekitIidStore {
+
+  /**
+   * Loads the iids previously saved for an accessory. Called once per accessory, before its iids
+   * are first needed.
+   *
+   * @param aid the id of the accessory
+   * @return the saved iids by key, or an empty map if none were saved
+   */
+  Map<String, Integer> load(long aid);
+
+  /**
+   * Saves the iids of an accessory. Called whenever iids have been assigned to new services or
+   * characteristics. The map includes the iids of services and characteristics that no longer
+   * exist, so they are not assigned to others later.
+   *
+   * @param aid the id of the accessory
+   * @param iids all iids assigned for the accessory by key
+   */
+  void save(long aid, Map<String, Integer> iids);
+}
@@ -2,16 +2,23 @@ package io.github.hapjava.server.impl;
 
 import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.server.HomekitIidStore;
 import io.github.hapjava.server.impl.connections.SubscriptionManager;
+import io.github.hapjava.server.impl.json.AccessoryMetadataCache;
 import io.github.hapjava.services.Service;
 import io.github.hapjava.services.impl.AccessoryInformationService;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,13 +26,20 @@ public class HomekitRegistry {
 
   private static final Logger logger = LoggerFactory.getLogger(HomekitRegistry.class);
 
+  public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+  public static final Duration DEFAULT_WRITE_TIMEOUT = Duration.ofSeconds(10);
+
   private final String label;
   private final SubscriptionManager subscriptions;
   private final Map<Long, HomekitAccessory> accessories;
-  private final Map<HomekitAccessory, Map<Integer, Service>> services = new HashMap<>();
-  private final Map<HomekitAccessory, Map<Integer, Characteristic>> characteristics =
-      new HashMap<>();
+  // replaced as a whole, so requests read it without locking and never see it half built
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+  private final AccessoryMetadataCache metadataCache = new AccessoryMetadataCache();
+  private final IidAllocator iidAllocator = new IidAllocator();
   private boolean isAllowUnauthenticatedRequests = false;
+  private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+  private Executor writeExecutor = null;
+  private Duration writeTimeout = DEFAULT_WRITE_TIMEOUT;
 
   public HomekitRegistry(String label, SubscriptionManager subscriptions) {
     this.label = label;
@@ -34,41 +48,81 @@ public class HomekitRegistry {
     reset();
   }
 
+  /** Rebuilds the tables of all accessories and resyncs all subscriptions. */
   public synchronized void reset() {
-    characteristics.clear();
-    services.clear();
+    Map<Long, AccessoryTables> tables = new HashMap<>();
     for (HomekitAccessory accessory : accessories.values()) {
-      int iid = 0;
-      List<Service> newServices;
-      try {
-        newServices = new ArrayList<>(2);
-        Collection<Service> services = accessory.getServices();
-        if (!services.stream()
-            .anyMatch(s -> s.getType().equals(AccessoryInformationService.TYPE))) {
-          newServices.add(new AccessoryInformationService(accessory));
-        }
-        for (Service service : services) {
-          newServices.add(service);
-          newServices.addAll(service.getLinkedServices());
-        }
-      } catch (Exception e) {
-        logger.warn("Could not instantiate services for accessory " + accessory.getName(), e);
-        services.put(accessory, Collections.emptyMap());
-        continue;
+      tables.put(accessory.getId(), build(accessory));
+    }
+    publish(tables);
+    // cleared last, so nothing cached from the previous snapshot survives
+    metadataCache.clear();
+    subscriptions.resync(this);
+  }
+
+  /**
+   * Rebuilds the tables of the given accessories only, and resyncs only the subscriptions to them.
+   * Accessories that have been removed from the registry are dropped.
+   *
+   * @param aids the ids of the accessories that were added, replaced or removed
+   */
+  public synchronized void update(Set<Long> aids) {
+    Map<Long, AccessoryTables> tables = new HashMap<>(snapshot.accessories);
+    for (Long aid : aids) {
+      HomekitAccessory accessory = accessories.get(aid);
+      if (accessory != null) {
+        tables.put(aid, build(accessory));
+      } else {
+        tables.remove(aid);
       }
+    }
+    publish(tables);
+    for (Long aid : aids) {
+      metadataCache.invalidate(aid);
+    }
+    subscriptions.resync(this, aids);
+  }
+
+  private void publish(Map<Long, AccessoryTables> tables) {
+    snapshot = new Snapshot(snapshot.version + 1, Collections.unmodifiableMap(tables));
+  }
 
-      Map<Integer, Characteristic> newCharacteristicsByInterfaceId = new HashMap<>();
-      Map<Integer, Service> newServicesByInterfaceId = new HashMap<>();
-      for (Service service : newServices) {
-        newServicesByInterfaceId.put(++iid, service);
-        for (Characteristic characteristic : service.getCharacteristics()) {
-          newCharacteristicsByInterfaceId.put(++iid, characteristic);
-        }
+  private AccessoryTables build(HomekitAccessory accessory) {
+    List<Service> newServices;
+    try {
+      newServices = new ArrayList<>(2);
+      Collection<Service> accessoryServices = accessory.getServices();
+      if (!accessoryServices.stream()
+          .anyMatch(s -> s.getType().equals(AccessoryInformationService.TYPE))) {
+        newServices.add(new AccessoryInformationService(accessory));
       }
-      services.put(accessory, newServicesByInterfaceId);
-      characteristics.put(accessory, newCharacteristicsByInterfaceId);
+      for (Service service : accessoryServices) {
+        newServices.add(service);
+        newServices.addAll(service.getLinkedServices());
+      }
+    } catch (Exception e) {
+      logger.warn("Could not instantiate services for accessory " + accessory.getName(), e);
+      return new AccessoryTables(accessory, Collections.emptyMap(), Collections.emptyMap(), 0);
     }
-    subscriptions.resync(this);
+
+    IidAllocator.Assignment iids = iidAllocator.assign(accessory.getId());
+    int maxIid = 0;
+    Map<Integer, Characteristic> newCharacteristicsByInterfaceId = new HashMap<>();
+    // in order, so the listing keeps the order of the services
+    Map<Integer, Service> newServicesByInterfaceId = new LinkedHashMap<>();
+    for (Service service : newServices) {
+      int iid = iids.service(service.getType());
+      newServicesByInterfaceId.put(iid, service);
+      maxIid = Math.max(maxIid, iid);
+      for (Characteristic characteristic : service.getCharacteristics()) {
+        iid = iids.characteristic(characteristic.getType());
+        newCharacteristicsByInterfaceId.put(iid, characteristic);
+        maxIid = Math.max(maxIid, iid);
+      }
+    }
+    iids.complete();
+    return new AccessoryTables(
+        accessory, newServicesByInterfaceId, newCharacteristicsByInterfaceId, maxIid);
   }
 
   public String getLabel() {
@@ -79,23 +133,80 @@ public class HomekitRegistry {
     return accessories.values();
   }
 
-  public Map<Integer, Service> getServices(Long aid) {
-    return Collections.unmodifiableMap(services.get(accessories.get(aid)));
+  public Map<Integer, Service> getServices(long aid) {
+    return snapshot.get(aid).services;
+  }
+
+  public Map<Integer, Characteristic> getCharacteristics(long aid) {
+    return snapshot.get(aid).characteristics;
+  }
+
+  /**
+   * @param aid the accessory id
+   * @param iid the instance id
+   * @return the service, or null if the accessory or service does not exist
+   */
+  public Service getService(long aid, int iid) {
+    return snapshot.get(aid).service(iid);
   }
 
-  public Map<Integer, Characteristic> getCharacteristics(Long aid) {
-    Map<Integer, Characteristic> characteristics = this.characteristics.get(accessories.get(aid));
-    if (characteristics == null) {
-      return Collections.emptyMap();
+  /**
+   * @param aid the accessory id
+   * @param iid the instance id
+   * @return the characteristic, or null if the accessory or characteristic does not exist
+   */
+  public Characteristic getCharacteristic(long aid, int iid) {
+    return snapshot.get(aid).characteristic(iid);
+  }
+
+  /** @return a number that increases whenever the accessories or their tables change */
+  public long getVersion() {
+    return snapshot.version;
+  }
+
+  /**
+   * Unlike {@link #getAccessories()}, this only includes accessories once their tables are built,
+   * and the version is the one those tables were published with.
+   *
+   * @return the accessories of the published tables, together with their version
+   */
+  public PublishedAccessories getPublishedAccessories() {
+    Snapshot current = snapshot;
+    List<HomekitAccessory> published = new ArrayList<>(current.accessories.size());
+    for (AccessoryTables tables : current.accessories.values()) {
+      published.add(tables.accessory);
     }
-    return Collections.unmodifiableMap(characteristics);
+    published.sort(Comparator.comparingLong(HomekitAccessory::getId));
+    return new PublishedAccessories(current.version, Collections.unmodifiableList(published));
   }
 
+  /**
+   * Sets where the iids of services and characteristics are persisted. Only affects tables built
+   * afterwards, so it should be set before the registry is first reset.
+   *
+   * @param store the store to load and save iids with, or null to keep them in memory only
+   */
+  public void setIidStore(HomekitIidStore store) {
+    iidAllocator.setStore(store);
+  }
+
+  public AccessoryMetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Adds an accessory, or replaces the one with the same id. Its tables are built by the next
+   * {@link #reset()} or {@link #update(Set)}.
+   *
+   * @param accessory the accessory to add
+   */
   public void add(HomekitAccessory accessory) {
     accessories.put(accessory.getId(), accessory);
+    metadataCache.invalidate(accessory.getId());
   }
 
   public boolean remove(HomekitAccessory accessory) {
+    metadataCache.invalidate(accessory.getId());
     return accessories.remove(accessory.getId()) != null;
   }
 
@@ -106,4 +217,147 @@ public class HomekitRegistry {
   public void setAllowUnauthenticatedRequests(boolean allow) {
     this.isAllowUnauthenticatedRequests = allow;
   }
+
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(Duration readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  /** @return the executor characteristic writes run on, or null to run them in request order. */
+  public Executor getWriteExecutor() {
+    return writeExecutor;
+  }
+
+  public void setWriteExecutor(Executor writeExecutor) {
+    this.writeExecutor = writeExecutor;
+  }
+
+  public Duration getWriteTimeout() {
+    return writeTimeout;
+  }
+
+  public void setWriteTimeout(Duration writeTimeout) {
+    this.writeTimeout = writeTimeout;
+  }
+
+  /** The accessories of one published version of the tables. */
+  public static final class PublishedAccessories {
+    private final long version;
+    private final List<HomekitAccessory> accessories;
+
+    private PublishedAccessories(long version, List<HomekitAccessory> accessories) {
+      this.version = version;
+      this.accessories = accessories;
+    }
+
+    /** @return the version, as returned by {@link HomekitRegistry#getVersion()} */
+    public long getVersion() {
+      return version;
+    }
+
+    /** @return the accessories, ordered by id */
+    public List<HomekitAccessory> getAccessories() {
+      return accessories;
+    }
+  }
+
+  /** The tables of all published accessories at one point in time. */
+  private static final class Snapshot {
+    static final Snapshot EMPTY = new Snapshot(0, Collections.emptyMap());
+
+    final long version;
+    // copied by update()
+    final Map<Long, AccessoryTables> accessories;
+    // looked up by requests
+    private final LongKeyMap<AccessoryTables> byAid;
+
+    Snapshot(long version, Map<Long, AccessoryTables> accessories) {
+      this.version = version;
+      this.accessories = accessories;
+      this.byAid = new LongKeyMap<>(accessories);
+    }
+
+    AccessoryTables get(long aid) {
+      AccessoryTables tables = byAid.get(aid);
+      return tables != null ? tables : AccessoryTables.EMPTY;
+    }
+  }
+
+  /**
+   * The services and characteristics of one accessory by iid. Iids are stable and never reused, so
+   * they are sparse and only grow as services come and go. They index arrays directly as long as
+   * the highest iid in use stays close to the number of entries; beyond that, e.g. after many
+   * retired iids or a corrupted store, they are hashed instead, so the tables stay small.
+   */
+  private static final class AccessoryTables {
+    static final AccessoryTables EMPTY =
+        new AccessoryTables(null, Collections.emptyMap(), Collections.emptyMap(), 0);
+
+    // up to this many slots per entry, plus some headroom for small accessories, are indexed
+    private static final int MAX_SLOTS_PER_ENTRY = 4;
+    private static final int MIN_INDEXED_IIDS = 64;
+
+    final HomekitAccessory accessory;
+    final Map<Integer, Service> services;
+    final Map<Integer, Characteristic> characteristics;
+    // either indexed by iid, or null and hashed
+    private final Service[] servicesByIid;
+    private final Characteristic[] characteristicsByIid;
+    private final LongKeyMap<Service> servicesBySparseIid;
+    private final LongKeyMap<Characteristic> characteristicsBySparseIid;
+
+    AccessoryTables(
+        HomekitAccessory accessory,
+        Map<Integer, Service> services,
+        Map<Integer, Characteristic> characteristics,
+        int maxIid) {
+      this.accessory = accessory;
+      this.services = Collections.unmodifiableMap(services);
+      this.characteristics = Collections.unmodifiableMap(characteristics);
+      int entries = services.size() + characteristics.size();
+      if (maxIid < MIN_INDEXED_IIDS + entries * MAX_SLOTS_PER_ENTRY) {
+        this.servicesByIid = index(services, new Service[maxIid + 1]);
+        this.characteristicsByIid = index(characteristics, new Characteristic[maxIid + 1]);
+        this.servicesBySparseIid = null;
+        this.characteristicsBySparseIid = null;
+      } else {
+        this.servicesByIid = null;
+        this.characteristicsByIid = null;
+        this.servicesBySparseIid = hash(services);
+        this.characteristicsBySparseIid = hash(characteristics);
+      }
+    }
+
+    Service service(int iid) {
+      if (servicesByIid == null) {
+        return servicesBySparseIid.get(iid);
+      }
+      return iid >= 0 && iid < servicesByIid.length ? servicesByIid[iid] : null;
+    }
+
+    Characteristic characteristic(int iid) {
+      if (characteristicsByIid == null) {
+        return characteristicsBySparseIid.get(iid);
+      }
+      return iid >= 0 && iid < characteristicsByIid.length ? characteristicsByIid[iid] : null;
+    }
+
+    private static <V> V[] index(Map<Integer, V> byIid, V[] array) {
+      for (Map.Entry<Integer, V> entry : byIid.entrySet()) {
+        array[entry.getKey()] = entry.getValue();
+      }
+      return array;
+    }
+
+    private static <V> LongKeyMap<V> hash(Map<Integer, V> byIid) {
+      Map<Long, V> byLongIid = new HashMap<>();
+      for (Map.Entry<Integer, V> entry : byIid.entrySet()) {
+        byLongIid.put((long) entry.getKey(), entry.getValue());
+      }
+      return new LongKeyMap<>(byLongIid);
+    }
+  }
 }
@@ -4,12 +4,18 @@ import io.github.hapjava.accessories.Bridge;
 import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.server.HomekitAccessoryCategories;
 import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.HomekitConfigurationStore;
+import io.github.hapjava.server.HomekitIidStore;
 import io.github.hapjava.server.HomekitWebHandler;
 import io.github.hapjava.server.impl.connections.HomekitClientConnectionFactoryImpl;
 import io.github.hapjava.server.impl.connections.SubscriptionManager;
 import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.jmdns.JmDNS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,8 +42,12 @@ public class HomekitRoot {
   private final SubscriptionManager subscriptions = new SubscriptionManager();
   private boolean started = false;
   private int configurationIndex = 1;
+  private HomekitConfigurationStore configurationStore = null;
+  // of the metadata the configuration index was last saved for
+  private String fingerprint = null;
   private int nestedBatches = 0;
-  private boolean madeChanges = false;
+  // accessories added, replaced or removed since the registry was last updated
+  private final Set<Long> changedAccessories = new HashSet<>();
   private int stateIndex = 1;
 
   HomekitRoot(
@@ -95,16 +105,13 @@ public class HomekitRoot {
    * completeUpdateBatch in order to publish all accumulated changes.
    */
   public synchronized void batchUpdate() {
-    if (this.nestedBatches == 0) {
-      madeChanges = false;
-    }
     ++this.nestedBatches;
   }
 
   /** Publish accumulated accessory changes since batchUpdate() was called. */
   public synchronized void completeUpdateBatch() {
-    if (--this.nestedBatches == 0 && madeChanges) {
-      registry.reset();
+    if (--this.nestedBatches == 0 && !changedAccessories.isEmpty()) {
+      updateRegistry();
     }
   }
 
@@ -133,10 +140,7 @@ public class HomekitRoot {
     if (logger.isTraceEnabled()) {
       accessory.getName().thenAccept(name -> logger.trace("Added accessory {}", name));
     }
-    madeChanges = true;
-    if (started && nestedBatches == 0) {
-      registry.reset();
-    }
+    accessoryChanged(accessory.getId());
   }
 
   /**
@@ -149,15 +153,72 @@ public class HomekitRoot {
       if (logger.isTraceEnabled()) {
         accessory.getName().thenAccept(name -> logger.trace("Removed accessory {}", name));
       }
-      madeChanges = true;
-      if (started && nestedBatches == 0) {
-        registry.reset();
-      }
+      accessoryChanged(accessory.getId());
     } else {
       accessory.getName().thenAccept(name -> logger.warn("Could not remove accessory {}", name));
     }
   }
 
+  private synchronized void accessoryChanged(long aid) {
+    changedAccessories.add(aid);
+    if (started && nestedBatches == 0) {
+      updateRegistry();
+    }
+  }
+
+  /** Rebuilds only the accessories that changed, rather than resetting the whole registry. */
+  private void updateRegistry() {
+    registry.update(new HashSet<>(changedAccessories));
+    changedAccessories.clear();
+    if (started) {
+      checkConfiguration();
+    }
+  }
+
+  /**
+   * Fingerprints the metadata of the registry as it is now, and increments the configuration index
+   * if it differs from the one the index was saved for.
+   */
+  private void checkConfiguration() {
+    if (configurationStore == null) {
+      return;
+    }
+    // the version and the accessories have to be of the same snapshot
+    HomekitRegistry.PublishedAccessories published = registry.getPublishedAccessories();
+    registry
+        .getMetadataCache()
+        .fingerprint(registry, published.getAccessories())
+        .thenAccept(fingerprint -> configurationChanged(published.getVersion(), fingerprint))
+        .exceptionally(
+            t -> {
+              logger.warn("Could not fingerprint the accessories", t);
+              return null;
+            });
+  }
+
+  private synchronized void configurationChanged(long version, String newFingerprint) {
+    // a later change is already being checked
+    if (configurationStore == null
+        || version != registry.getVersion()
+        || newFingerprint.equals(fingerprint)) {
+      return;
+    }
+    if (fingerprint != null) {
+      // the configuration number wraps around after 65535
+      configurationIndex = configurationIndex >= 65535 ? 1 : configurationIndex + 1;
+      logger.debug("Accessories have changed, configuration index is now {}", configurationIndex);
+      if (started) {
+        try {
+          advertiser.setConfigurationIndex(configurationIndex);
+        } catch (IOException e) {
+          logger.warn("Could not advertise configuration index " + configurationIndex, e);
+        }
+      }
+    }
+    fingerprint = newFingerprint;
+    configurationStore.save(configurationIndex, fingerprint);
+  }
+
   /**
    * Starts advertising and handling the previously added HomeKit accessories. You should try to
    * call this after you have used the {@link #addAccessory(HomekitAccessory)} method to add all the
@@ -165,26 +226,32 @@ public class HomekitRoot {
    * clients to reconnect.
    */
   public void start() {
-    started = true;
-    madeChanges = false;
-    registry.reset();
+    synchronized (this) {
+      started = true;
+      changedAccessories.clear();
+      registry.reset();
+      checkConfiguration();
+    }
     webHandler
         .start(
             new HomekitClientConnectionFactoryImpl(authInfo, registry, subscriptions, advertiser))
         .thenAccept(
             port -> {
-              try {
-                refreshAuthInfo();
-                advertiser.advertise(
-                    label,
-                    category,
-                    authInfo.getMac(),
-                    port,
-                    configurationIndex,
-                    authInfo.getSetupId(),
-                    this.stateIndex);
-              } catch (Exception e) {
-                throw new RuntimeException(e);
+              // not while the configuration index changes
+              synchronized (this) {
+                try {
+                  refreshAuthInfo();
+                  advertiser.advertise(
+                      label,
+                      category,
+                      authInfo.getMac(),
+                      port,
+                      configurationIndex,
+                      authInfo.getSetupId(),
+                      this.stateIndex);
+                } catch (Exception e) {
+                  throw new RuntimeException(e);
+                }
               }
             });
   }
@@ -217,18 +284,97 @@ public class HomekitRoot {
     registry.setAllowUnauthenticatedRequests(allow);
   }
 
+  /**
+   * Limits how long a characteristic read may take. Characteristics whose value is not available in
+   * time are reported to the client as timed out instead of holding up the whole response. Defaults
+   * to {@link HomekitRegistry#DEFAULT_READ_TIMEOUT}.
+   *
+   * @param timeout the maximum time to wait for a characteristic value
+   */
+  public void setReadTimeout(Duration timeout) {
+    if (timeout.isNegative() || timeout.isZero()) {
+      throw new IllegalArgumentException("timeout must be positive");
+    }
+    registry.setReadTimeout(timeout);
+  }
+
+  /**
+   * By default, the writes of a request are applied one after the other on the thread handling the
+   * request. With an executor, writes to different accessories are dispatched to it in parallel,
+   * while writes to the same accessory still run in the order they were requested. Size the
+   * executor to bound how many setters may run at once. Passing null restores the default.
+   *
+   * @param executor the executor to run characteristic setters on, or null
+   */
+  public void setWriteExecutor(Executor executor) {
+    registry.setWriteExecutor(executor);
+  }
+
+  /**
+   * Limits how long a write dispatched to the {@link #setWriteExecutor(Executor) write executor}
+   * may take before it is reported to the client as timed out. The setter itself is not
+   * interrupted. Defaults to {@link HomekitRegistry#DEFAULT_WRITE_TIMEOUT}.
+   *
+   * @param timeout the maximum time to wait for a characteristic write
+   */
+  public void setWriteTimeout(Duration timeout) {
+    if (timeout.isNegative() || timeout.isZero()) {
+      throw new IllegalArgumentException("timeout must be positive");
+    }
+    registry.setWriteTimeout(timeout);
+  }
+
+  /**
+   * By default, every change of a subscribed characteristic is sent to the clients right away. With
+   * a coalescing window, changes are collected per client for that long and then sent as a single
+   * event, with one entry per characteristic carrying its latest value. A window of 50 to 250
+   * milliseconds keeps a flapping sensor or a ramping dimmer from flooding the clients. Passing
+   * zero restores the default.
+   *
+   * @param window the time to collect changes for before sending them
+   */
+  public void setEventCoalescingWindow(Duration window) {
+    if (window.isNegative()) {
+      throw new IllegalArgumentException("window must not be negative");
+    }
+    subscriptions.setCoalescingWindow(window);
+  }
+
+  /**
+   * Events for a client that does not keep up with reading them, e.g. on a weak network, are held
+   * back and only the latest value of each characteristic is sent once the client catches up.
+   *
+   * @return the number of events that were replaced by a later one before they could be sent
+   */
+  public long getDroppedEventCount() {
+    return subscriptions.getDroppedEventCount();
+  }
+
+  /**
+   * By default, iids are kept in memory only. They stay the same while accessories are added,
+   * removed or change their services, but are numbered anew, in the order of the services and
+   * characteristics, when the application restarts. With a store, the iids are saved and stay the
+   * same across restarts as well. Must be set before {@link #start()}.
+   *
+   * @param store the store to load and save iids with, or null to keep them in memory only
+   */
+  public void setIidStore(HomekitIidStore store) {
+    registry.setIidStore(store);
+  }
+
   /**
    * By default, the bridge advertises itself at revision 1. If you make changes to the accessories
    * you're including in the bridge after your first call to {@link start()}, you should increment
    * this number. The behavior of the client if the configuration index were to decrement is
    * undefined, so this implementation will not manage the configuration index by automatically
-   * incrementing - preserving this state across invocations should be handled externally.
+   * incrementing - preserving this state across invocations should be handled externally, unless a
+   * {@link #setConfigurationStore(HomekitConfigurationStore) configuration store} is set.
    *
    * @param revision an integer, greater than or equal to one, indicating the revision of the
    *     accessory information
    * @throws IOException if there is an error in the underlying protocol, such as a TCP error
    */
-  public void setConfigurationIndex(int revision) throws IOException {
+  public synchronized void setConfigurationIndex(int revision) throws IOException {
     if (revision < 1) {
       throw new IllegalArgumentException("revision must be greater than or equal to 1");
     }
@@ -236,6 +382,30 @@ public class HomekitRoot {
     if (this.started) {
       advertiser.setConfigurationIndex(revision);
     }
+    if (configurationStore != null && fingerprint != null) {
+      configurationStore.save(revision, fingerprint);
+    }
+  }
+
+  /**
+   * Lets the configuration index be managed automatically. Whenever the accessories are published,
+   * a fingerprint of their metadata, i.e. the /accessories listing without the characteristic
+   * values, is compared to the one saved in the store, and the configuration index is incremented
+   * and saved only if they differ. On the first start with a store, the current metadata and index
+   * are saved as they are. Must be set before {@link #start()}.
+   *
+   * @param store the store to load and save the configuration index with, or null to manage it
+   *     manually
+   */
+  public synchronized void setConfigurationStore(HomekitConfigurationStore store) {
+    this.configurationStore = store;
+    this.fingerprint = null;
+    if (store != null) {
+      this.fingerprint = store.getFingerprint();
+      if (store.getConfigurationIndex() >= 1) {
+        this.configurationIndex = store.getConfigurationIndex();
+      }
+    }
   }
 
   public void setStateIndex(int stateIndex) throws IOException {
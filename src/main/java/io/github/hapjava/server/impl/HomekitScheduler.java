@@ -0,0 +1,56 @@
+package io.github.hapjava.server.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared timer for deadlines and delayed work inside the server. It runs on a single daemon thread,
+ * so scheduled tasks must be short and must not block.
+ */
+public final class HomekitScheduler {
+
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "hap-java-scheduler");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private HomekitScheduler() {}
+
+  /**
+   * Schedules a task to run once after the given delay.
+   *
+   * @param task the task to run.
+   * @param delay the delay.
+   * @param unit the unit of the delay.
+   * @return a handle to cancel the task.
+   */
+  public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+    return SCHEDULER.schedule(task, delay, unit);
+  }
+
+  /**
+   * Completes the future with the given value unless it completes on its own before the timeout
+   * elapses, like {@code CompletableFuture.completeOnTimeout} on Java 9 and later.
+   *
+   * @param future the future to complete.
+   * @param value the value to complete the future with when it times out.
+   * @param timeout the timeout.
+   * @param unit the unit of the timeout.
+   * @param <T> the type of the future's value.
+   * @return the given future.
+   */
+  public static <T> CompletableFuture<T> completeOnTimeout(
+      CompletableFuture<T> future, T value, long timeout, TimeUnit unit) {
+    if (!future.isDone()) {
+      ScheduledFuture<?> task = SCHEDULER.schedule(() -> future.complete(value), timeout, unit);
+      future.whenComplete((r, t) -> task.cancel(false));
+    }
+    return future;
+  }
+}
@@ -8,6 +8,9 @@ import java.math.BigInteger;
 import java.net.InetAddress;
 import java.security.InvalidAlgorithmParameterException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.jmdns.JmDNS;
 
 /**
@@ -64,6 +67,89 @@ public class HomekitServer {
     http = new HomekitHttpServer(jmdns.getInetAddress(), port, nThreads);
   }
 
+  /**
+   * Constructor. Requests are handled on the given executor instead of a fixed number of threads,
+   * e.g. {@link #newVirtualThreadExecutor()}, so blocking accessory implementations do not limit
+   * how many requests can be handled at once. Requests of a single connection are still handled one
+   * after the other. The executor is not shut down when the server stops.
+   *
+   * @param localAddress local address to bind to.
+   * @param port local port to bind to.
+   * @param requestExecutor the executor to handle requests on
+   * @throws IOException when the server cannot bind to the supplied port
+   */
+  public HomekitServer(InetAddress localAddress, int port, Executor requestExecutor)
+      throws IOException {
+    this.localAddress = localAddress;
+    this.jmdns = null;
+    http = new HomekitHttpServer(localAddress, port, requestExecutor);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param jmdns mdns service to register with
+   * @param port local port to bind to
+   * @param requestExecutor the executor to handle requests on, see {@link
+   *     #HomekitServer(InetAddress, int, Executor)}
+   * @throws IOException when the server cannot bind to the supplied port
+   */
+  public HomekitServer(JmDNS jmdns, int port, Executor requestExecutor) throws IOException {
+    this.jmdns = jmdns;
+    this.localAddress = null;
+    http = new HomekitHttpServer(jmdns.getInetAddress(), port, requestExecutor);
+  }
+
+  /**
+   * Constructor. In addition to the request executor, sets how many threads serve the connections
+   * and whether to use the native epoll transport. The native transport lowers the latency of
+   * events on Linux, but needs netty-transport-native-epoll with the classifier of the platform on
+   * the classpath. Without it, or on other platforms, the server falls back to NIO.
+   *
+   * @param localAddress local address to bind to.
+   * @param port local port to bind to.
+   * @param requestExecutor the executor to handle requests on, see {@link
+   *     #HomekitServer(InetAddress, int, Executor)}
+   * @param ioThreads number of threads serving the connections, or 0 for twice the number of
+   *     available processors
+   * @param nativeTransport whether to use the native epoll transport where available
+   * @throws IOException when the server cannot bind to the supplied port
+   */
+  public HomekitServer(
+      InetAddress localAddress,
+      int port,
+      Executor requestExecutor,
+      int ioThreads,
+      boolean nativeTransport)
+      throws IOException {
+    this.localAddress = localAddress;
+    this.jmdns = null;
+    http = new HomekitHttpServer(localAddress, port, requestExecutor, ioThreads, nativeTransport);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param jmdns mdns service to register with
+   * @param port local port to bind to
+   * @param requestExecutor the executor to handle requests on, see {@link
+   *     #HomekitServer(InetAddress, int, Executor)}
+   * @param ioThreads number of threads serving the connections, or 0 for twice the number of
+   *     available processors
+   * @param nativeTransport whether to use the native epoll transport where available, see {@link
+   *     #HomekitServer(InetAddress, int, Executor, int, boolean)}
+   * @throws IOException when the server cannot bind to the supplied port
+   */
+  public HomekitServer(
+      JmDNS jmdns, int port, Executor requestExecutor, int ioThreads, boolean nativeTransport)
+      throws IOException {
+    this.jmdns = jmdns;
+    this.localAddress = null;
+    http =
+        new HomekitHttpServer(
+            jmdns.getInetAddress(), port, requestExecutor, ioThreads, nativeTransport);
+  }
+
   /**
    * Constructor
    *
@@ -95,6 +181,22 @@ public class HomekitServer {
     this(InetAddress.getLocalHost(), port);
   }
 
+  /**
+   * Creates an executor that runs each request on a new virtual thread when running on Java 21 or
+   * later, where a blocked request costs next to nothing. On older versions, it falls back to a
+   * cached thread pool.
+   *
+   * @return an executor to pass to {@link #HomekitServer(InetAddress, int, Executor)}.
+   */
+  public static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
   /** Stops the service, closing down existing connections and preventing new ones. */
   public void stop() {
     http.stop();
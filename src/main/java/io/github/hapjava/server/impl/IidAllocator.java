@@ -0,0 +1,106 @@
+package io.github.hapjava.server.impl;
+
+import io.github.hapjava.server.HomekitIidStore;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns iids to the services and characteristics of accessories by their type and position,
+ * rather than by counting them. An iid is never reassigned, so adding or removing a service or
+ * characteristic leaves the iids of the others unchanged. Iids of new keys continue after the
+ * highest one assigned, so an accessory seen for the first time is numbered from 1 in order.
+ */
+class IidAllocator {
+
+  private static final Logger logger = LoggerFactory.getLogger(IidAllocator.class);
+
+  private final Map<Long, Map<String, Integer>> iids = new HashMap<>();
+  private HomekitIidStore store = null;
+
+  synchronized void setStore(HomekitIidStore store) {
+    this.store = store;
+    // loaded again from the new store when next needed
+    iids.clear();
+  }
+
+  /**
+   * @param aid the accessory to assign iids for
+   * @return the assignment for a single build of the accessory's tables
+   */
+  synchronized Assignment assign(long aid) {
+    return new Assignment(aid, iids.computeIfAbsent(aid, this::load));
+  }
+
+  private Map<String, Integer> load(long aid) {
+    if (store != null) {
+      try {
+        return new HashMap<>(store.load(aid));
+      } catch (RuntimeException e) {
+        logger.warn("Could not load iids of accessory " + aid + ", assigning new ones", e);
+      }
+    }
+    return new HashMap<>();
+  }
+
+  private synchronized void save(long aid, Map<String, Integer> assigned) {
+    if (store != null) {
+      try {
+        store.save(aid, Collections.unmodifiableMap(new HashMap<>(assigned)));
+      } catch (RuntimeException e) {
+        logger.warn("Could not save iids of accessory " + aid, e);
+      }
+    }
+  }
+
+  /**
+   * Walks the services of an accessory, and the characteristics of each, in order. Keys are built
+   * from the types and the number of times each type was seen before.
+   */
+  class Assignment {
+    private final long aid;
+    private final Map<String, Integer> assigned;
+    private final Map<String, Integer> serviceCounts = new HashMap<>();
+    private final Map<String, Integer> characteristicCounts = new HashMap<>();
+    private String serviceKey;
+    private int max;
+    private boolean changed = false;
+
+    private Assignment(long aid, Map<String, Integer> assigned) {
+      this.aid = aid;
+      this.assigned = assigned;
+      for (int iid : assigned.values()) {
+        max = Math.max(max, iid);
+      }
+    }
+
+    int service(String type) {
+      serviceKey = type + "#" + serviceCounts.merge(type, 1, Integer::sum);
+      characteristicCounts.clear();
+      return iid(serviceKey);
+    }
+
+    int characteristic(String type) {
+      return iid(serviceKey + "/" + type + "#" + characteristicCounts.merge(type, 1, Integer::sum));
+    }
+
+    private int iid(String key) {
+      Integer iid = assigned.get(key);
+      if (iid == null) {
+        iid = ++max;
+        assigned.put(key, iid);
+        changed = true;
+      }
+      return iid;
+    }
+
+    /** Saves the iids that were assigned to new keys. */
+    void complete() {
+      if (changed) {
+        save(aid, assigned);
+      }
+    }
+  }
+}
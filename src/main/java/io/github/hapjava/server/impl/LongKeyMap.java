@@ -0,0 +1,52 @@
+package io.github.hapjava.server.impl;
+
+import java.util.Map;
+
+/**
+ * An immutable map from primitive long keys, resolved by open addressing with linear probing. Looks
+ * up a key without boxing it or allocating.
+ *
+ * @param <V> the type of the values, which must not be null
+ */
+final class LongKeyMap<V> {
+
+  private final long[] keys;
+  private final Object[] values;
+  private final int mask;
+
+  LongKeyMap(Map<Long, V> map) {
+    // at most half full, so probes stay short
+    int capacity = Integer.highestOneBit(Math.max(map.size(), 1) * 4 - 1);
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    for (Map.Entry<Long, V> entry : map.entrySet()) {
+      int slot = slot(entry.getKey());
+      while (values[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = entry.getKey();
+      values[slot] = entry.getValue();
+    }
+  }
+
+  /**
+   * @param key the key to look up
+   * @return the value of the key, or null if there is none
+   */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    for (int slot = slot(key); values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return (V) values[slot];
+      }
+    }
+    return null;
+  }
+
+  private int slot(long key) {
+    // aids are usually small and consecutive; spread them over the whole table
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+}
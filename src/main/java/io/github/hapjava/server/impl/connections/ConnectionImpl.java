@@ -2,18 +2,16 @@ package io.github.hapjava.server.impl.connections;
 
 import io.github.hapjava.server.HomekitAuthInfo;
 import io.github.hapjava.server.impl.HomekitRegistry;
-import io.github.hapjava.server.impl.crypto.ChachaDecoder;
-import io.github.hapjava.server.impl.crypto.ChachaEncoder;
+import io.github.hapjava.server.impl.crypto.AeadProvider;
+import io.github.hapjava.server.impl.crypto.AeadSession;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HttpRequest;
 import io.github.hapjava.server.impl.http.HttpResponse;
 import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
 import io.github.hapjava.server.impl.pairing.UpgradeResponse;
-import java.io.ByteArrayOutputStream;
+import io.netty.buffer.ByteBuf;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import org.bouncycastle.util.Pack;
 import org.slf4j.Logger;
@@ -21,13 +19,20 @@ import org.slf4j.LoggerFactory;
 
 class ConnectionImpl implements HomekitClientConnection {
 
+  private static final int MAX_FRAME_LENGTH = 0x400;
+  private static final int MAC_LENGTH = 16;
+
   private final HttpSession httpSession;
-  private LengthPrefixedByteArrayProcessor binaryProcessor;
-  private int inboundBinaryMessageCount = 0;
-  private int outboundBinaryMessageCount = 0;
-  private byte[] readKey;
-  private byte[] writeKey;
-  private boolean isUpgraded = false;
+  private final byte[] inboundLength = new byte[2];
+  private final byte[] outboundLength = new byte[2];
+  // only used when a buffer is not backed by an array
+  private final byte[] inboundScratch = new byte[MAX_FRAME_LENGTH + MAC_LENGTH];
+  private final byte[] outboundScratch = new byte[MAX_FRAME_LENGTH + MAC_LENGTH];
+  private AeadSession readSession;
+  private AeadSession writeSession;
+  // set after the sessions, so the event loop sees them once it sees the upgrade
+  private volatile boolean isUpgraded = false;
+  private volatile boolean writable = true;
   private final Consumer<HttpResponse> outOfBandMessageCallback;
   private final SubscriptionManager subscriptions;
 
@@ -44,95 +49,91 @@ class ConnectionImpl implements HomekitClientConnection {
     this.subscriptions = subscriptions;
   }
 
+  /** Requests of a connection are handed in one at a time, in the order they were received. */
   @Override
-  public synchronized HttpResponse handleRequest(HttpRequest request) throws IOException {
-    return doHandleRequest(request);
+  public CompletableFuture<HttpResponse> handleRequest(HttpRequest request) throws IOException {
+    if (isUpgraded) {
+      return httpSession
+          .handleAuthenticatedRequest(request)
+          .thenApply(response -> trace(response, request));
+    }
+    // pairing completes synchronously, so the upgrade is in place before the next request
+    return httpSession.handleRequest(request).thenApply(response -> upgrade(response, request));
   }
 
-  private HttpResponse doHandleRequest(HttpRequest request) throws IOException {
-    HttpResponse response =
-        isUpgraded
-            ? httpSession.handleAuthenticatedRequest(request)
-            : httpSession.handleRequest(request);
+  private HttpResponse upgrade(HttpResponse response, HttpRequest request) {
     if (response instanceof UpgradeResponse) {
+      AeadProvider aead = AeadProvider.getDefault();
+      readSession = aead.newSession(((UpgradeResponse) response).getReadKey().array());
+      writeSession = aead.newSession(((UpgradeResponse) response).getWriteKey().array());
       isUpgraded = true;
-      readKey = ((UpgradeResponse) response).getReadKey().array();
-      writeKey = ((UpgradeResponse) response).getWriteKey().array();
     }
+    return trace(response, request);
+  }
+
+  private HttpResponse trace(HttpResponse response, HttpRequest request) {
     LOGGER.trace("{} {} {}", response.getStatusCode(), request.getMethod(), request.getUri());
     return response;
   }
 
   @Override
-  public byte[] decryptRequest(byte[] ciphertext) {
+  public void decryptRequest(ByteBuf frame, ByteBuf plaintext) throws IOException {
     if (!isUpgraded) {
       throw new RuntimeException("Cannot handle binary before connection is upgraded");
     }
-    if (binaryProcessor == null) {
-      binaryProcessor = new LengthPrefixedByteArrayProcessor();
+    frame.readBytes(inboundLength);
+    int length = (inboundLength[0] & 0xFF) | (inboundLength[1] & 0xFF) << 8;
+    if (length > MAX_FRAME_LENGTH || frame.readableBytes() != length + MAC_LENGTH) {
+      throw new IOException("Invalid frame of length " + length);
+    }
+
+    byte[] input = inboundScratch;
+    int inOff = 0;
+    if (frame.hasArray()) {
+      input = frame.array();
+      inOff = frame.arrayOffset() + frame.readerIndex();
+    } else {
+      frame.getBytes(frame.readerIndex(), inboundScratch, 0, length + MAC_LENGTH);
     }
-    Collection<byte[]> res = binaryProcessor.handle(ciphertext);
-    if (res.isEmpty()) {
-      return new byte[0];
+
+    plaintext.ensureWritable(length);
+    if (plaintext.hasArray()) {
+      int outOff = plaintext.arrayOffset() + plaintext.writerIndex();
+      readSession.open(inboundLength, input, inOff, length, plaintext.array(), outOff);
+      plaintext.writerIndex(plaintext.writerIndex() + length);
     } else {
-      try (ByteArrayOutputStream decrypted = new ByteArrayOutputStream()) {
-        res.stream()
-            .map(msg -> decrypt(msg))
-            .forEach(
-                bytes -> {
-                  try {
-                    decrypted.write(bytes);
-                  } catch (Exception e) {
-                    throw new RuntimeException(e);
-                  }
-                });
-        return decrypted.toByteArray();
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
+      readSession.open(inboundLength, input, inOff, length, inboundScratch, 0);
+      plaintext.writeBytes(inboundScratch, 0, length);
     }
+    frame.skipBytes(length + MAC_LENGTH);
   }
 
   @Override
-  public byte[] encryptResponse(byte[] response) throws IOException {
-    int offset = 0;
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-      while (offset < response.length) {
-        short length = (short) Math.min(response.length - offset, 0x400);
-        byte[] lengthBytes =
-            ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort(length).array();
-        baos.write(lengthBytes);
-
-        byte[] nonce = Pack.longToLittleEndian(outboundBinaryMessageCount++);
-        byte[] plaintext;
-        if (response.length == length) {
-          plaintext = response;
-        } else {
-          plaintext = new byte[length];
-          System.arraycopy(response, offset, plaintext, 0, length);
-        }
-        offset += length;
-        baos.write(new ChachaEncoder(writeKey, nonce).encodeCiphertext(plaintext, lengthBytes));
+  public void encryptResponse(ByteBuf plaintext, ByteBuf ciphertext) throws IOException {
+    while (plaintext.isReadable()) {
+      int length = Math.min(plaintext.readableBytes(), MAX_FRAME_LENGTH);
+      Pack.shortToLittleEndian((short) length, outboundLength, 0);
+      ciphertext.ensureWritable(outboundLength.length + length + MAC_LENGTH);
+      ciphertext.writeBytes(outboundLength);
+
+      byte[] input = outboundScratch;
+      int inOff = 0;
+      if (plaintext.hasArray()) {
+        input = plaintext.array();
+        inOff = plaintext.arrayOffset() + plaintext.readerIndex();
+      } else {
+        plaintext.getBytes(plaintext.readerIndex(), outboundScratch, 0, length);
       }
-      return baos.toByteArray();
-    }
-  }
 
-  private byte[] decrypt(byte[] msg) {
-    byte[] mac = new byte[16];
-    byte[] ciphertext = new byte[msg.length - 16];
-    System.arraycopy(msg, 0, ciphertext, 0, msg.length - 16);
-    System.arraycopy(msg, msg.length - 16, mac, 0, 16);
-    byte[] additionalData =
-        ByteBuffer.allocate(2)
-            .order(ByteOrder.LITTLE_ENDIAN)
-            .putShort((short) (msg.length - 16))
-            .array();
-    try {
-      byte[] nonce = Pack.longToLittleEndian(inboundBinaryMessageCount++);
-      return new ChachaDecoder(readKey, nonce).decodeCiphertext(mac, additionalData, ciphertext);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+      if (ciphertext.hasArray()) {
+        int outOff = ciphertext.arrayOffset() + ciphertext.writerIndex();
+        writeSession.seal(outboundLength, input, inOff, length, ciphertext.array(), outOff);
+        ciphertext.writerIndex(ciphertext.writerIndex() + length + MAC_LENGTH);
+      } else {
+        writeSession.seal(outboundLength, input, inOff, length, outboundScratch, 0);
+        ciphertext.writeBytes(outboundScratch, 0, length + MAC_LENGTH);
+      }
+      plaintext.skipBytes(length);
     }
   }
 
@@ -145,4 +146,19 @@ class ConnectionImpl implements HomekitClientConnection {
   public void outOfBand(HttpResponse message) {
     outOfBandMessageCallback.accept(message);
   }
+
+  @Override
+  public boolean isWritable() {
+    return writable;
+  }
+
+  @Override
+  public void writabilityChanged(boolean writable) {
+    LOGGER.trace("Connection {} writable: {}", hashCode(), writable);
+    this.writable = writable;
+    if (writable) {
+      // only dispatched, the event is built and written off the I/O thread
+      subscriptions.flushPending(this);
+    }
+  }
 }
@@ -16,6 +16,8 @@ import io.github.hapjava.server.impl.responses.InternalServerErrorResponse;
 import io.github.hapjava.server.impl.responses.NotFoundResponse;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,55 +49,70 @@ class HttpSession {
     this.advertiser = advertiser;
   }
 
-  public HttpResponse handleRequest(HttpRequest request) throws IOException {
+  public CompletableFuture<HttpResponse> handleRequest(HttpRequest request) throws IOException {
     switch (request.getUri()) {
       case "/pair-setup":
-        return handlePairSetup(request);
+        return CompletableFuture.completedFuture(handlePairSetup(request));
 
       case "/pair-verify":
-        return handlePairVerify(request);
+        return CompletableFuture.completedFuture(handlePairVerify(request));
 
       default:
         if (registry.isAllowUnauthenticatedRequests()) {
           return handleAuthenticatedRequest(request);
         } else {
           logger.warn("Unrecognized request for " + request.getUri());
-          return new NotFoundResponse();
+          return CompletableFuture.completedFuture(new NotFoundResponse());
         }
     }
   }
 
-  public HttpResponse handleAuthenticatedRequest(HttpRequest request) throws IOException {
+  public CompletableFuture<HttpResponse> handleAuthenticatedRequest(HttpRequest request)
+      throws IOException {
     advertiser.setDiscoverable(
         false); // bridge is already bound and should not be discoverable anymore
+    CompletableFuture<HttpResponse> response;
     try {
-      switch (request.getUri()) {
-        case "/accessories":
-          return getAccessoryController().listing();
-
-        case "/characteristics":
-          switch (request.getMethod()) {
-            case PUT:
-              return getCharacteristicsController().put(request, connection);
-
-            default:
-              logger.warn("Unrecognized method for " + request.getUri());
-              return new NotFoundResponse();
-          }
-
-        case "/pairings":
-          return new PairingsManager(authInfo, advertiser).handle(request);
-
-        default:
-          if (request.getUri().startsWith("/characteristics?")) {
-            return getCharacteristicsController().get(request);
-          }
-          logger.warn("Unrecognized request for " + request.getUri());
-          return new NotFoundResponse();
-      }
+      response = route(request);
     } catch (Exception e) {
-      logger.warn("Could not handle request", e);
-      return new InternalServerErrorResponse(e);
+      response = new CompletableFuture<>();
+      response.completeExceptionally(e);
+    }
+    return response.exceptionally(
+        t -> {
+          Throwable cause =
+              t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+          logger.warn("Could not handle request", cause);
+          return new InternalServerErrorResponse(
+              cause instanceof Exception ? (Exception) cause : new Exception(cause));
+        });
+  }
+
+  private CompletableFuture<HttpResponse> route(HttpRequest request) throws Exception {
+    switch (request.getUri()) {
+      case "/accessories":
+        return getAccessoryController().listing();
+
+      case "/characteristics":
+        switch (request.getMethod()) {
+          case PUT:
+            return getCharacteristicsController().put(request, connection);
+
+          default:
+            logger.warn("Unrecognized method for " + request.getUri());
+            return CompletableFuture.completedFuture(new NotFoundResponse());
+        }
+
+      case "/pairings":
+        return CompletableFuture.completedFuture(
+            new PairingsManager(authInfo, advertiser).handle(request));
+
+      default:
+        if (request.getUri().startsWith("/characteristics?")) {
+          return getCharacteristicsController().get(request);
+        }
+        logger.warn("Unrecognized request for " + request.getUri());
+        return CompletableFuture.completedFuture(new NotFoundResponse());
     }
   }
 
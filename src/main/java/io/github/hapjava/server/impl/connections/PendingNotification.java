@@ -3,13 +3,42 @@ package io.github.hapjava.server.impl.connections;
 import io.github.hapjava.characteristics.EventableCharacteristic;
 
 public class PendingNotification {
-  public long aid;
-  public int iid;
-  public EventableCharacteristic characteristic;
+  public final long aid;
+  public final int iid;
+  // replaced when the registry is reset while the notification is pending
+  public volatile EventableCharacteristic characteristic;
+  // the value reported with the change, if any, so it need not be read again
+  public final boolean hasValue;
+  public final Object value;
 
   public PendingNotification(long aid, int iid, EventableCharacteristic characteristic) {
     this.aid = aid;
     this.iid = iid;
     this.characteristic = characteristic;
+    this.hasValue = false;
+    this.value = null;
+  }
+
+  public PendingNotification(
+      long aid, int iid, EventableCharacteristic characteristic, Object value) {
+    this.aid = aid;
+    this.iid = iid;
+    this.characteristic = characteristic;
+    this.hasValue = true;
+    this.value = value;
+  }
+
+  /** Notifications are equal when they are for the same characteristic, whatever its instance. */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof PendingNotification)) return false;
+    PendingNotification that = (PendingNotification) o;
+    return aid == that.aid && iid == that.iid;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Long.hashCode(aid) + iid;
   }
 }
@@ -2,17 +2,30 @@ package io.github.hapjava.server.impl.connections;
 
 import io.github.hapjava.characteristics.Characteristic;
 import io.github.hapjava.characteristics.EventableCharacteristic;
+import io.github.hapjava.characteristics.HomekitCharacteristicChangeCallback;
 import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.HomekitScheduler;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HttpResponse;
+import io.github.hapjava.server.impl.http.impl.EncodedHttpResponse;
 import io.github.hapjava.server.impl.json.EventController;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,23 +34,73 @@ public class SubscriptionManager {
   private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionManager.class);
 
   private static class ConnectionsWithIds {
-    Set<HomekitClientConnection> connections;
-    long aid;
-    int iid;
+    // copy-on-write: publishing iterates far more often than connections subscribe
+    final Set<HomekitClientConnection> connections = new CopyOnWriteArraySet<>();
+    final long aid;
+    final int iid;
 
     ConnectionsWithIds(long aid, int iid) {
       this.aid = aid;
       this.iid = iid;
-      this.connections = new HashSet<>();
     }
   }
 
-  private final Map<EventableCharacteristic, ConnectionsWithIds> subscriptions = new HashMap<>();
+  /** Changes waiting to be sent to a connection, at most one per characteristic. */
+  private static class PendingEvents {
+    // keyed by aid/iid, so a later change replaces one of the same characteristic still pending,
+    // and a connection that stops reading holds at most one change per subscription
+    final Map<PendingNotification, PendingNotification> notifications = new ConcurrentHashMap<>();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+  }
+
+  /*
+   * Changes to the subscriptions are made under this object's monitor. Publishing only reads the
+   * concurrent maps and sets, so changes of different characteristics are published in parallel
+   * and never wait for a subscription change or for each other.
+   */
+  private final Map<EventableCharacteristic, ConnectionsWithIds> subscriptions =
+      new ConcurrentHashMap<>();
   private final Map<HomekitClientConnection, Set<EventableCharacteristic>> reverse =
-      new HashMap<>();
-  private final Map<HomekitClientConnection, List<PendingNotification>> pendingNotifications =
-      new HashMap<>();
-  private int nestedBatches = 0;
+      new ConcurrentHashMap<>();
+  private final Map<HomekitClientConnection, PendingEvents> pendingNotifications =
+      new ConcurrentHashMap<>();
+  // builds events off the scheduler and I/O threads, as that may block on a characteristic getter
+  private final Executor executor;
+  private final AtomicInteger nestedBatches = new AtomicInteger();
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private volatile long coalescingWindowNanos = 0;
+
+  /** Builds delayed events on a shared pool of daemon threads. */
+  public SubscriptionManager() {
+    this(EventExecutor.INSTANCE);
+  }
+
+  /** @param executor the executor to build delayed events on, which may block on getters */
+  public SubscriptionManager(Executor executor) {
+    this.executor = executor;
+  }
+
+  /** Created on first use, so a manager with its own executor does not start it. */
+  private static class EventExecutor {
+    static final Executor INSTANCE =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread thread = new Thread(r, "hap-java-events");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Collects the changes of each connection's subscriptions for the given window before sending
+   * them as a single event. Repeated changes of a characteristic within the window are sent once,
+   * with the value at the end of the window. A zero window sends every change immediately.
+   *
+   * @param window the time to collect changes for, or zero to disable coalescing.
+   */
+  public void setCoalescingWindow(Duration window) {
+    this.coalescingWindowNanos = window.toNanos();
+  }
 
   public synchronized void addSubscription(
       long aid,
@@ -55,10 +118,7 @@ public class SubscriptionManager {
       }
       subscribers.connections.add(connection);
 
-      if (!reverse.containsKey(connection)) {
-        reverse.put(connection, new HashSet<>());
-      }
-      reverse.get(connection).add(characteristic);
+      reverse.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(characteristic);
       LOGGER.trace(
           "Added subscription to {}:{} ({}) for {}",
           aid,
@@ -80,10 +140,12 @@ public class SubscriptionManager {
       }
 
       // Remove pending notifications for this no-longer-subscribed characteristic
-      List<PendingNotification> connectionNotifications = pendingNotifications.get(connection);
+      PendingEvents connectionNotifications = pendingNotifications.get(connection);
       if (connectionNotifications != null) {
-        connectionNotifications.removeIf(n -> n.aid == subscribers.aid && n.iid == subscribers.iid);
-        if (connectionNotifications.isEmpty()) pendingNotifications.remove(connection);
+        connectionNotifications
+            .notifications
+            .keySet()
+            .removeIf(n -> n.aid == subscribers.aid && n.iid == subscribers.iid);
       }
 
       LOGGER.trace(
@@ -107,7 +169,10 @@ public class SubscriptionManager {
 
   private void removeConnection(
       HomekitClientConnection connection, Set<EventableCharacteristic> characteristics) {
-    pendingNotifications.remove(connection);
+    PendingEvents pending = pendingNotifications.remove(connection);
+    if (pending != null) {
+      pending.notifications.clear();
+    }
     if (characteristics != null) {
       for (EventableCharacteristic characteristic : characteristics) {
         removeSubscription(characteristic, connection);
@@ -116,56 +181,164 @@ public class SubscriptionManager {
     LOGGER.trace("Removed connection {}", connection.hashCode());
   }
 
-  public synchronized void batchUpdate() {
-    ++this.nestedBatches;
+  public void batchUpdate() {
+    nestedBatches.incrementAndGet();
   }
 
-  public synchronized void completeUpdateBatch() {
-    if (--this.nestedBatches == 0) flushUpdateBatch();
+  public void completeUpdateBatch() {
+    if (nestedBatches.decrementAndGet() == 0) flushUpdateBatch();
   }
 
   private void flushUpdateBatch() {
-    if (pendingNotifications.isEmpty()) return;
-
-    LOGGER.trace("Publishing batched changes");
-    for (Map.Entry<HomekitClientConnection, List<PendingNotification>> entry :
+    for (Map.Entry<HomekitClientConnection, PendingEvents> entry :
         pendingNotifications.entrySet()) {
-      try {
-        HttpResponse message = new EventController().getMessage(entry.getValue());
-        entry.getKey().outOfBand(message);
-      } catch (Exception e) {
-        LOGGER.warn("Failed to create new event message", e);
+      HomekitClientConnection connection = entry.getKey();
+      if (!reverse.containsKey(connection)) {
+        // no longer subscribed to anything, so the held back events are dropped
+        pendingNotifications.remove(connection);
+        continue;
+      }
+      flush(connection, entry.getValue());
+    }
+  }
+
+  /**
+   * Sends the changes that were held back for the connection while it was not writable. The event
+   * is built on the executor, so this can be called from an I/O thread, which must not wait for a
+   * getter.
+   *
+   * @param connection the connection that became writable again.
+   */
+  public void flushPending(HomekitClientConnection connection) {
+    PendingEvents pending = pendingNotifications.get(connection);
+    if (pending != null && !pending.notifications.isEmpty()) {
+      executor.execute(() -> flush(connection, pending));
+    }
+  }
+
+  /**
+   * @return the number of changes that were not sent because a later change of the same
+   *     characteristic replaced them, e.g. while a connection was not writable.
+   */
+  public long getDroppedEventCount() {
+    return droppedEvents.get();
+  }
+
+  private void hold(HomekitClientConnection connection, PendingNotification notification) {
+    PendingNotification replaced =
+        pendingNotifications
+            .computeIfAbsent(connection, c -> new PendingEvents())
+            .notifications
+            .put(notification, notification);
+    if (replaced != null) {
+      droppedEvents.incrementAndGet();
+    }
+  }
+
+  private void flush(HomekitClientConnection connection, PendingEvents pending) {
+    if (!connection.isWritable()) {
+      // kept until the connection reports that it is writable again
+      return;
+    }
+    // drain rather than clear, publishers may still be adding changes. A change arriving after its
+    // characteristic has been drained is kept for the next flush, as the value may be stale.
+    List<PendingNotification> notifications = new ArrayList<>();
+    for (PendingNotification key : pending.notifications.keySet()) {
+      PendingNotification latest = pending.notifications.remove(key);
+      if (latest != null) {
+        notifications.add(latest);
       }
     }
-    pendingNotifications.clear();
+    if (notifications.isEmpty()) {
+      return;
+    }
+    LOGGER.trace("Publishing {} pending changes", notifications.size());
+    try {
+      HttpResponse message = new EventController().getMessage(notifications);
+      connection.outOfBand(message);
+    } catch (Exception e) {
+      LOGGER.warn("Failed to create new event message", e);
+    }
+  }
+
+  private void scheduleFlush(HomekitClientConnection connection, long delayNanos) {
+    PendingEvents pending = pendingNotifications.get(connection);
+    if (pending != null && pending.scheduled.compareAndSet(false, true)) {
+      // the scheduler is only the timer, the flush may block on a getter
+      HomekitScheduler.schedule(
+          () ->
+              executor.execute(
+                  () -> {
+                    // cleared first, so changes arriving during the flush schedule the next one
+                    pending.scheduled.set(false);
+                    flush(connection, pending);
+                  }),
+          delayNanos,
+          TimeUnit.NANOSECONDS);
+    }
   }
 
-  public synchronized void publish(long accessoryId, int iid, EventableCharacteristic changed) {
+  public void publish(long accessoryId, int iid, EventableCharacteristic changed) {
+    publish(new PendingNotification(accessoryId, iid, changed));
+  }
+
+  /** Publishes a change together with its new value, which is sent instead of reading it again. */
+  public void publish(long accessoryId, int iid, EventableCharacteristic changed, Object value) {
+    publish(new PendingNotification(accessoryId, iid, changed, value));
+  }
+
+  private void publish(PendingNotification notification) {
+    long accessoryId = notification.aid;
+    int iid = notification.iid;
+    EventableCharacteristic changed = notification.characteristic;
     final ConnectionsWithIds subscribers = subscriptions.get(changed);
     if (subscribers == null || subscribers.connections.isEmpty()) {
       LOGGER.trace("No subscribers to characteristic {} at accessory {} ", changed, accessoryId);
       return; // no subscribers
     }
-    if (nestedBatches != 0) {
+    long window = coalescingWindowNanos;
+    if (nestedBatches.get() != 0 || window > 0) {
       LOGGER.trace("Batching change for accessory {} and characteristic {} " + accessoryId, iid);
-      PendingNotification notification = new PendingNotification(accessoryId, iid, changed);
       for (HomekitClientConnection connection : subscribers.connections) {
-        if (!pendingNotifications.containsKey(connection)) {
-          pendingNotifications.put(connection, new ArrayList<PendingNotification>());
+        hold(connection, notification);
+      }
+      if (nestedBatches.get() == 0) {
+        if (window > 0) {
+          for (HomekitClientConnection connection : subscribers.connections) {
+            scheduleFlush(connection, window);
+          }
+        } else {
+          // the batch completed while the notification was queued
+          flushUpdateBatch();
         }
-        pendingNotifications.get(connection).add(notification);
       }
       return;
     }
 
+    EncodedHttpResponse message;
+    try {
+      // encoded once, each subscriber sends a duplicate of the same buffer
+      message =
+          EncodedHttpResponse.encode(
+              new EventController().getMessage(Collections.singletonList(notification)));
+    } catch (Exception e) {
+      LOGGER.warn("Failed to create new event message", e);
+      return;
+    }
     try {
-      HttpResponse message = new EventController().getMessage(accessoryId, iid, changed);
       LOGGER.trace("Publishing change for " + accessoryId);
       for (HomekitClientConnection connection : subscribers.connections) {
-        connection.outOfBand(message);
+        if (connection.isWritable()) {
+          connection.outOfBand(message);
+        } else {
+          LOGGER.trace("Holding back change for {}", connection.hashCode());
+          hold(connection, notification);
+          // writability may have returned before the change was held
+          flushPending(connection);
+        }
       }
-    } catch (Exception e) {
-      LOGGER.warn("Failed to create new event message", e);
+    } finally {
+      message.release();
     }
   }
 
@@ -175,6 +348,19 @@ public class SubscriptionManager {
    */
   public synchronized void resync(HomekitRegistry registry) {
     LOGGER.trace("Resyncing subscriptions");
+    resync(registry, aid -> true);
+  }
+
+  /**
+   * Some accessories of the registry have changed; go through the subscriptions to them only and
+   * link to any new/changed characteristics
+   */
+  public synchronized void resync(HomekitRegistry registry, Set<Long> aids) {
+    LOGGER.trace("Resyncing subscriptions of accessories {}", aids);
+    resync(registry, aids::contains);
+  }
+
+  private void resync(HomekitRegistry registry, Predicate<Long> affected) {
     flushUpdateBatch();
 
     Map<EventableCharacteristic, ConnectionsWithIds> newSubscriptions = new HashMap<>();
@@ -184,8 +370,11 @@ public class SubscriptionManager {
       Map.Entry<EventableCharacteristic, ConnectionsWithIds> entry = i.next();
       EventableCharacteristic oldCharacteristic = entry.getKey();
       ConnectionsWithIds subscribers = entry.getValue();
+      if (!affected.test(subscribers.aid)) {
+        continue;
+      }
       Characteristic newCharacteristic =
-          registry.getCharacteristics(subscribers.aid).get(subscribers.iid);
+          registry.getCharacteristic(subscribers.aid, subscribers.iid);
       if (newCharacteristic == null || newCharacteristic.getType() != oldCharacteristic.getType()) {
         // characteristic is gone or has completely changed; drop all subscriptions for it
         LOGGER.trace(
@@ -220,9 +409,10 @@ public class SubscriptionManager {
 
           // and also update references for any pending notifications, so they'll get the proper
           // value
-          List<PendingNotification> connectionPendingNotifications = pendingNotifications.get(conn);
+          PendingEvents connectionPendingNotifications = pendingNotifications.get(conn);
           if (connectionPendingNotifications != null) {
-            for (PendingNotification notification : connectionPendingNotifications) {
+            for (PendingNotification notification :
+                connectionPendingNotifications.notifications.values()) {
               if (notification.characteristic == oldCharacteristic) {
                 notification.characteristic = newEventableCharacteristic;
               }
@@ -236,8 +426,16 @@ public class SubscriptionManager {
 
   private void subscribe(long aid, int iid, EventableCharacteristic characteristic) {
     characteristic.subscribe(
-        () -> {
-          publish(aid, iid, characteristic);
+        new HomekitCharacteristicChangeCallback() {
+          @Override
+          public void changed() {
+            publish(aid, iid, characteristic);
+          }
+
+          @Override
+          public void changedTo(Object newValue) {
+            publish(aid, iid, characteristic, newValue);
+          }
         });
   }
 
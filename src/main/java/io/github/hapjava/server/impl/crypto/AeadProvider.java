@@ -0,0 +1,50 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+
+/**
+ * Source of the ChaCha20-Poly1305 AEAD used for pairing and for upgraded connections.
+ *
+ * <p>The default provider is chosen once at startup: the JDK implementation when the running JVM
+ * offers it (JDK 11 and later), BouncyCastle otherwise. Set the system property {@value #PROPERTY}
+ * to {@code jca} or {@code bouncycastle} to force one of them.
+ */
+public interface AeadProvider {
+
+  String PROPERTY = "io.github.hapjava.aead";
+
+  /**
+   * Creates the cipher state for one direction of an upgraded connection.
+   *
+   * @param key the 32 byte session key
+   * @return a session whose record counter starts at zero
+   */
+  AeadSession newSession(byte[] key);
+
+  /**
+   * Encrypts a single message, as exchanged during pairing.
+   *
+   * @param key the 32 byte key
+   * @param nonce the 8 byte nonce
+   * @param plaintext the message
+   * @return the ciphertext followed by the 16 byte MAC
+   */
+  byte[] encrypt(byte[] key, byte[] nonce, byte[] plaintext);
+
+  /**
+   * Verifies and decrypts a single message, as exchanged during pairing.
+   *
+   * @param key the 32 byte key
+   * @param nonce the 8 byte nonce
+   * @param mac the 16 byte MAC
+   * @param ciphertext the encrypted message
+   * @return the plaintext
+   * @throws IOException if the MAC does not match
+   */
+  byte[] decrypt(byte[] key, byte[] nonce, byte[] mac, byte[] ciphertext) throws IOException;
+
+  /** @return the provider selected for this JVM */
+  static AeadProvider getDefault() {
+    return AeadProviders.DEFAULT;
+  }
+}
@@ -0,0 +1,24 @@
+package io.github.hapjava.server.impl.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+class AeadProviders {
+
+  private static final Logger logger = LoggerFactory.getLogger(AeadProviders.class);
+
+  static final AeadProvider DEFAULT = select(System.getProperty(AeadProvider.PROPERTY));
+
+  static AeadProvider select(String name) {
+    AeadProvider provider;
+    if ("bouncycastle".equalsIgnoreCase(name)) {
+      provider = new BouncyCastleAeadProvider();
+    } else if ("jca".equalsIgnoreCase(name) || JcaAeadProvider.isAvailable()) {
+      provider = new JcaAeadProvider();
+    } else {
+      provider = new BouncyCastleAeadProvider();
+    }
+    logger.debug("Using {} for ChaCha20-Poly1305", provider.getClass().getSimpleName());
+    return provider;
+  }
+}
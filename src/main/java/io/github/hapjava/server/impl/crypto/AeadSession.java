@@ -0,0 +1,38 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+
+/**
+ * ChaCha20-Poly1305 state for one direction of an upgraded connection, bound to a single key. Each
+ * call handles the next record, using the little-endian record counter as nonce.
+ *
+ * <p>Instances are not thread safe; use one per direction.
+ */
+public interface AeadSession {
+
+  /**
+   * Encrypts the next record, writing the ciphertext immediately followed by the 16 byte MAC.
+   *
+   * @param additionalData authenticated data which is not encrypted, may be null
+   * @param input buffer holding the plaintext
+   * @param inOff offset of the plaintext in input
+   * @param length number of plaintext bytes
+   * @param output buffer receiving length + 16 bytes, may be the same as input
+   * @param outOff offset in output to write to
+   */
+  void seal(byte[] additionalData, byte[] input, int inOff, int length, byte[] output, int outOff);
+
+  /**
+   * Verifies and decrypts the next record, held as ciphertext immediately followed by its MAC.
+   *
+   * @param additionalData authenticated data which was not encrypted, may be null
+   * @param input buffer holding the ciphertext and MAC
+   * @param inOff offset of the ciphertext in input
+   * @param length number of ciphertext bytes, excluding the MAC
+   * @param output buffer receiving length bytes of plaintext, may be the same as input
+   * @param outOff offset in output to write to
+   * @throws IOException if the MAC does not match
+   */
+  void open(byte[] additionalData, byte[] input, int inOff, int length, byte[] output, int outOff)
+      throws IOException;
+}
@@ -0,0 +1,27 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+
+/** Pure Java {@link AeadProvider}, available on every JVM. */
+public class BouncyCastleAeadProvider implements AeadProvider {
+
+  @Override
+  public AeadSession newSession(byte[] key) {
+    return new BouncyCastleAeadSession(key);
+  }
+
+  @Override
+  public byte[] encrypt(byte[] key, byte[] nonce, byte[] plaintext) {
+    try {
+      return new ChachaEncoder(key, nonce).encodeCiphertext(plaintext);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public byte[] decrypt(byte[] key, byte[] nonce, byte[] mac, byte[] ciphertext)
+      throws IOException {
+    return new ChachaDecoder(key, nonce).decodeCiphertext(mac, ciphertext);
+  }
+}
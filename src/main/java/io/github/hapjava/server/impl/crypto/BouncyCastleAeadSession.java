@@ -0,0 +1,103 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+import org.bouncycastle.crypto.engines.ChaChaEngine;
+import org.bouncycastle.crypto.generators.Poly1305KeyGenerator;
+import org.bouncycastle.crypto.macs.Poly1305;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.Pack;
+
+/**
+ * {@link AeadSession} on top of the BouncyCastle ChaCha engine and Poly1305 MAC. The key is set
+ * once; every record only re-keys the nonce, and the cipher, MAC and scratch buffers are reused, so
+ * sealing or opening a record does not allocate.
+ */
+class BouncyCastleAeadSession implements AeadSession {
+
+  private static final int MAC_LENGTH = 16;
+  private static final byte[] PADDING = new byte[16];
+
+  private final RecordCipher cipher;
+  private final Poly1305 mac = new Poly1305();
+  private final KeyParameter macKey = new KeyParameter(new byte[32]);
+  private final byte[] firstBlock = new byte[64];
+  private final byte[] nonce = new byte[8];
+  private final byte[] lengths = new byte[16];
+  private final byte[] calculatedMAC = new byte[MAC_LENGTH];
+  private long counter = 0;
+
+  BouncyCastleAeadSession(byte[] key) {
+    this.cipher = new RecordCipher(key);
+  }
+
+  @Override
+  public void seal(
+      byte[] additionalData, byte[] input, int inOff, int length, byte[] output, int outOff) {
+    nextRecord();
+    cipher.processBytes(input, inOff, length, output, outOff);
+    calculateMAC(additionalData, output, outOff, length);
+    System.arraycopy(calculatedMAC, 0, output, outOff + length, MAC_LENGTH);
+  }
+
+  @Override
+  public void open(
+      byte[] additionalData, byte[] input, int inOff, int length, byte[] output, int outOff)
+      throws IOException {
+    nextRecord();
+    calculateMAC(additionalData, input, inOff, length);
+    if (!Arrays.constantTimeAreEqual(MAC_LENGTH, calculatedMAC, 0, input, inOff + length)) {
+      throw new IOException("received an incorrect MAC");
+    }
+    cipher.processBytes(input, inOff, length, output, outOff);
+  }
+
+  private void nextRecord() {
+    Pack.longToLittleEndian(counter++, nonce, 0);
+    cipher.setNonce(nonce);
+
+    Arrays.fill(firstBlock, (byte) 0);
+    cipher.processBytes(firstBlock, 0, firstBlock.length, firstBlock, 0);
+
+    // RFC 8439: 'r' followed by 's', which is also the layout BC's Poly1305 expects
+    byte[] key = macKey.getKey();
+    System.arraycopy(firstBlock, 0, key, 0, 32);
+    Poly1305KeyGenerator.clamp(key);
+    mac.init(macKey);
+  }
+
+  private void calculateMAC(byte[] additionalData, byte[] ciphertext, int offset, int length) {
+    int additionalDataLength = additionalData == null ? 0 : additionalData.length;
+    if (additionalDataLength > 0) {
+      mac.update(additionalData, 0, additionalDataLength);
+      pad(additionalDataLength);
+    }
+    mac.update(ciphertext, offset, length);
+    pad(length);
+    Pack.longToLittleEndian(additionalDataLength, lengths, 0);
+    Pack.longToLittleEndian(length, lengths, 8);
+    mac.update(lengths, 0, lengths.length);
+    mac.doFinal(calculatedMAC, 0);
+  }
+
+  private void pad(int length) {
+    if (length % 16 != 0) {
+      mac.update(PADDING, 0, 16 - (length % 16));
+    }
+  }
+
+  /** A ChaCha20 engine whose nonce can be replaced without re-deriving the key schedule. */
+  private static class RecordCipher extends ChaChaEngine {
+
+    RecordCipher(byte[] key) {
+      super(20);
+      init(true, new ParametersWithIV(new KeyParameter(key), new byte[8]));
+    }
+
+    void setNonce(byte[] nonce) {
+      setKey(null, nonce);
+      reset();
+    }
+  }
+}
@@ -43,9 +43,8 @@ public class ChachaDecoder {
     byte[] firstBlock = new byte[64];
     cipher.processBytes(firstBlock, 0, firstBlock.length, firstBlock, 0);
 
-    // NOTE: The BC implementation puts 'r' after 'k'
-    System.arraycopy(firstBlock, 0, firstBlock, 32, 16);
-    KeyParameter macKey = new KeyParameter(firstBlock, 16, 32);
+    // RFC 8439: 'r' followed by 's', which is also the layout BC's Poly1305 expects
+    KeyParameter macKey = new KeyParameter(firstBlock, 0, 32);
     Poly1305KeyGenerator.clamp(macKey.getKey());
     return macKey;
   }
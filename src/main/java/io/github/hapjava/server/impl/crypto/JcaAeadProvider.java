@@ -0,0 +1,68 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link AeadProvider} backed by the JDK's {@code ChaCha20-Poly1305} cipher, which is intrinsified
+ * on JDK 11 and later.
+ */
+public class JcaAeadProvider implements AeadProvider {
+
+  static final String TRANSFORMATION = "ChaCha20-Poly1305";
+  static final String KEY_ALGORITHM = "ChaCha20";
+
+  /** @return whether the running JVM provides ChaCha20-Poly1305 */
+  public static boolean isAvailable() {
+    try {
+      Cipher.getInstance(TRANSFORMATION);
+      return true;
+    } catch (GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public AeadSession newSession(byte[] key) {
+    return new JcaAeadSession(key);
+  }
+
+  @Override
+  public byte[] encrypt(byte[] key, byte[] nonce, byte[] plaintext) {
+    try {
+      Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, KEY_ALGORITHM), parameters(nonce));
+      return cipher.doFinal(plaintext);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public byte[] decrypt(byte[] key, byte[] nonce, byte[] mac, byte[] ciphertext)
+      throws IOException {
+    try {
+      Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, KEY_ALGORITHM), parameters(nonce));
+      byte[] plaintext = new byte[ciphertext.length];
+      int length = cipher.update(ciphertext, 0, ciphertext.length, plaintext, 0);
+      cipher.doFinal(mac, 0, mac.length, plaintext, length);
+      return plaintext;
+    } catch (AEADBadTagException e) {
+      throw new IOException("received an incorrect MAC", e);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** HAP uses 8 byte nonces; the IETF construction zero pads them to 12 bytes at the front. */
+  static IvParameterSpec parameters(byte[] nonce) {
+    byte[] iv = new byte[12];
+    System.arraycopy(nonce, 0, iv, 4, 8);
+    return new IvParameterSpec(iv);
+  }
+}
@@ -0,0 +1,59 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.util.Pack;
+
+/** {@link AeadSession} reusing one JDK cipher instance and key for all records. */
+class JcaAeadSession implements AeadSession {
+
+  private final Cipher cipher;
+  private final SecretKeySpec key;
+  private final byte[] nonce = new byte[8];
+  private long counter = 0;
+
+  JcaAeadSession(byte[] key) {
+    try {
+      this.cipher = Cipher.getInstance(JcaAeadProvider.TRANSFORMATION);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+    this.key = new SecretKeySpec(key, JcaAeadProvider.KEY_ALGORITHM);
+  }
+
+  @Override
+  public void seal(
+      byte[] additionalData, byte[] input, int inOff, int length, byte[] output, int outOff) {
+    try {
+      init(Cipher.ENCRYPT_MODE, additionalData);
+      cipher.doFinal(input, inOff, length, output, outOff);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void open(
+      byte[] additionalData, byte[] input, int inOff, int length, byte[] output, int outOff)
+      throws IOException {
+    try {
+      init(Cipher.DECRYPT_MODE, additionalData);
+      cipher.doFinal(input, inOff, length + 16, output, outOff);
+    } catch (AEADBadTagException e) {
+      throw new IOException("received an incorrect MAC", e);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void init(int mode, byte[] additionalData) throws GeneralSecurityException {
+    Pack.longToLittleEndian(counter++, nonce, 0);
+    cipher.init(mode, key, JcaAeadProvider.parameters(nonce));
+    if (additionalData != null) {
+      cipher.updateAAD(additionalData);
+    }
+  }
+}
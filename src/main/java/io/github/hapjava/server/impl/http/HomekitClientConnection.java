@@ -1,16 +1,41 @@
 package io.github.hapjava.server.impl.http;
 
+import io.netty.buffer.ByteBuf;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public interface HomekitClientConnection {
 
-  HttpResponse handleRequest(HttpRequest request) throws IOException;
+  /**
+   * Handles a request. The request is fully read before this returns, but the response may complete
+   * later, e.g. while characteristic values are being retrieved.
+   */
+  CompletableFuture<HttpResponse> handleRequest(HttpRequest request) throws IOException;
 
-  byte[] decryptRequest(byte[] ciphertext);
+  /**
+   * Decrypts a single complete frame (2 byte length, ciphertext and 16 byte MAC), appending the
+   * plaintext to the supplied buffer.
+   */
+  void decryptRequest(ByteBuf frame, ByteBuf plaintext) throws IOException;
 
-  byte[] encryptResponse(byte[] plaintext) throws IOException;
+  /** Encrypts all readable bytes of plaintext, appending the resulting frames to ciphertext. */
+  void encryptResponse(ByteBuf plaintext, ByteBuf ciphertext) throws IOException;
 
   void close();
 
   void outOfBand(HttpResponse message);
+
+  /**
+   * Whether the connection currently accepts out-of-band messages. While it does not, events are
+   * held back and coalesced rather than queued on the channel.
+   */
+  default boolean isWritable() {
+    return true;
+  }
+
+  /**
+   * Called on the channel's I/O thread when its outbound buffer crosses its high or low water mark,
+   * so it must not block.
+   */
+  default void writabilityChanged(boolean writable) {}
 }
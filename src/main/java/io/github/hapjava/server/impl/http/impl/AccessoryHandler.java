@@ -3,26 +3,36 @@ package io.github.hapjava.server.impl.http.impl;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import io.github.hapjava.server.impl.http.HttpResponse;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.http.*;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+class AccessoryHandler extends SimpleChannelInboundHandler<HapHttpRequest> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(AccessoryHandler.class);
 
   private HomekitClientConnection connection;
+  private CompletableFuture<Void> previousResponse = CompletableFuture.completedFuture(null);
   private final HomekitClientConnectionFactory homekitClientConnectionFactory;
+  // requests may block in accessory code, so they are handled off the event loop, one at a time
+  private final SerialExecutor requests;
 
-  public AccessoryHandler(HomekitClientConnectionFactory homekitClientConnectionFactory) {
+  public AccessoryHandler(
+      HomekitClientConnectionFactory homekitClientConnectionFactory, Executor requestExecutor) {
+    super(false);
     this.homekitClientConnectionFactory = homekitClientConnectionFactory;
+    this.requests = new SerialExecutor(requestExecutor);
   }
 
   @Override
@@ -34,55 +44,77 @@ class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
               if (!channel.isActive()) {
                 return;
               }
-              channel.writeAndFlush(NettyResponseUtil.createResponse(response));
+              if (response instanceof EncodedHttpResponse) {
+                channel.writeAndFlush(((EncodedHttpResponse) response).retainedContent());
+              } else {
+                channel.writeAndFlush(response);
+              }
             });
     LOGGER.trace("New HomeKit connection from " + ctx.channel().remoteAddress().toString());
     super.channelActive(ctx);
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    connection.writabilityChanged(ctx.channel().isWritable());
+    super.channelWritabilityChanged(ctx);
+  }
+
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-    this.connection.close();
+    try {
+      requests.execute(connection::close);
+    } catch (RejectedExecutionException e) {
+      // the executor is shutting down, but the subscriptions must still be removed
+      connection.close();
+    }
     LOGGER.trace("Terminated HomeKit connection from " + ctx.channel().remoteAddress().toString());
     super.channelInactive(ctx);
   }
 
   @Override
-  public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest req) throws Exception {
+  public void channelRead0(ChannelHandlerContext ctx, HapHttpRequest req) throws Exception {
     try {
-      HttpResponse response = connection.handleRequest(new FullRequestHttpRequestImpl(req));
-      if (response.doUpgrade()) {
-        ChannelPipeline pipeline = ctx.channel().pipeline();
-        pipeline.addBefore(
-            ServerInitializer.HTTP_HANDLER_NAME, "binary", new BinaryHandler(connection));
-      }
-      sendResponse(response, ctx);
-    } catch (Exception e) {
-      LOGGER.warn("Error handling homekit http request", e);
-      sendResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error: " + e.getMessage(), ctx);
+      requests.execute(() -> handleRequest(ctx, req));
+    } catch (RuntimeException e) {
+      req.release();
+      throw e;
     }
   }
 
-  private void sendResponse(
-      HttpResponseStatus status, String responseBody, ChannelHandlerContext ctx) {
-    if (responseBody == null) {
-      responseBody = "";
+  private void handleRequest(ChannelHandlerContext ctx, HapHttpRequest req) {
+    CompletableFuture<HttpResponse> response;
+    try {
+      response = connection.handleRequest(req);
+    } catch (Exception e) {
+      response = new CompletableFuture<>();
+      response.completeExceptionally(e);
+    } finally {
+      // the request is fully read once handleRequest returns
+      req.release();
     }
-    FullHttpResponse response =
-        new DefaultFullHttpResponse(
-            HttpVersion.HTTP_1_1,
-            status,
-            Unpooled.copiedBuffer(responseBody.getBytes(StandardCharsets.UTF_8)));
-    response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
-    response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
-    response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
-    ctx.write(response);
-    ctx.flush();
+    // responses complete in any order, but have to be sent in the order of the requests
+    previousResponse =
+        previousResponse
+            .thenCombine(response, (previous, current) -> current)
+            .handle(
+                (current, t) -> {
+                  if (t != null) {
+                    Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                    LOGGER.warn("Error handling homekit http request", cause);
+                    sendResponse(new ErrorResponse("Error: " + cause.getMessage()), ctx);
+                    return null;
+                  }
+                  if (current.doUpgrade()) {
+                    ServerInitializer.upgrade(ctx.channel().pipeline(), connection);
+                  }
+                  sendResponse(current, ctx);
+                  return null;
+                });
   }
 
   private void sendResponse(HttpResponse homekitResponse, ChannelHandlerContext ctx) {
-    FullHttpResponse response = NettyResponseUtil.createResponse(homekitResponse);
-    ctx.write(response);
+    ctx.write(homekitResponse);
     ctx.flush();
   }
 
@@ -102,4 +134,30 @@ class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     }
     ctx.close();
   }
+
+  private static class ErrorResponse implements HttpResponse {
+
+    private static final Map<String, String> HEADERS =
+        Collections.singletonMap("Content-Type", "text/plain");
+    private final byte[] body;
+
+    ErrorResponse(String message) {
+      this.body = message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int getStatusCode() {
+      return 500;
+    }
+
+    @Override
+    public ByteBuffer getBody() {
+      return ByteBuffer.wrap(body);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+      return HEADERS;
+    }
+  }
 }
@@ -2,49 +2,141 @@ package io.github.hapjava.server.impl.http.impl;
 
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.concurrent.PromiseNotifier;
 import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class BinaryHandler extends ByteToMessageCodec<ByteBuf> {
+public class BinaryHandler extends MessageToMessageCodec<ByteBuf, ByteBuf> {
 
   private static final Logger logger = LoggerFactory.getLogger(BinaryHandler.class);
 
+  // plaintext written since the last flush is encrypted in one go, filling whole frames
+  private static final int MAX_PENDING_LENGTH = 16 * HapFrameDecoder.MAX_FRAME_LENGTH;
+
   private final HomekitClientConnection connection;
+  private final boolean preferDirect;
   private boolean started = false;
+  private CompositeByteBuf pending;
+  private final List<ChannelPromise> pendingPromises = new ArrayList<>();
 
   public BinaryHandler(HomekitClientConnection connection) {
+    // the cipher works on arrays, so heap buffers save a copy in and out of each frame
+    this(connection, false);
+  }
+
+  public BinaryHandler(HomekitClientConnection connection, boolean preferDirect) {
     this.connection = connection;
+    this.preferDirect = preferDirect;
   }
 
   @Override
-  protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
-    if (started) {
-      debugData("Sending data", msg, ctx);
-      byte[] b = new byte[msg.readableBytes()];
-      msg.readBytes(b);
-      out.writeBytes(connection.encryptResponse(b));
-    } else {
-      out.writeBytes(msg);
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+      throws Exception {
+    if (!started || !(msg instanceof ByteBuf)) {
+      super.write(ctx, msg, promise);
+      return;
+    }
+    ByteBuf plaintext = (ByteBuf) msg;
+    debugData("Sending data", plaintext, ctx);
+    if (pending == null) {
+      pending = ctx.alloc().compositeBuffer();
+    }
+    pending.addComponent(true, plaintext);
+    pendingPromises.add(promise.unvoid());
+    if (pending.readableBytes() >= MAX_PENDING_LENGTH) {
+      writePending(ctx);
     }
   }
 
   @Override
-  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-    byte[] b = new byte[in.readableBytes()];
-    in.readBytes(b);
-    byte[] decrypted = connection.decryptRequest(b);
-    ByteBuf outBuf = Unpooled.copiedBuffer(decrypted);
-    debugData("Received data", outBuf, ctx);
-    out.add(outBuf);
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    writePending(ctx);
+    super.flush(ctx);
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+    discardPending(new ClosedChannelException());
+    super.close(ctx, promise);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    discardPending(new ClosedChannelException());
+    super.handlerRemoved(ctx);
+  }
+
+  private void writePending(ChannelHandlerContext ctx) throws Exception {
+    if (pending == null) {
+      return;
+    }
+    CompositeByteBuf plaintext = pending;
+    ChannelPromise[] promises = pendingPromises.toArray(new ChannelPromise[0]);
+    pending = null;
+    pendingPromises.clear();
+
+    int length = plaintext.readableBytes();
+    int frames = (length + HapFrameDecoder.MAX_FRAME_LENGTH - 1) / HapFrameDecoder.MAX_FRAME_LENGTH;
+    ByteBuf ciphertext = allocate(ctx, length + frames * HapFrameDecoder.FRAME_OVERHEAD);
+    try {
+      connection.encryptResponse(plaintext, ciphertext);
+    } catch (Exception e) {
+      ciphertext.release();
+      for (ChannelPromise promise : promises) {
+        promise.tryFailure(e);
+      }
+      throw e;
+    } finally {
+      plaintext.release();
+    }
+    ctx.write(ciphertext).addListener(new PromiseNotifier<>(promises));
+  }
+
+  private void discardPending(Throwable cause) {
+    if (pending != null) {
+      pending.release();
+      pending = null;
+      for (ChannelPromise promise : pendingPromises) {
+        promise.tryFailure(cause);
+      }
+      pendingPromises.clear();
+    }
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+    // only reached before the session is encrypted, see write()
+    out.add(msg.retain());
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out)
+      throws Exception {
+    ByteBuf plaintext = allocate(ctx, frame.readableBytes() - HapFrameDecoder.FRAME_OVERHEAD);
+    try {
+      connection.decryptRequest(frame, plaintext);
+    } catch (Exception e) {
+      plaintext.release();
+      throw e;
+    }
+    debugData("Received data", plaintext, ctx);
+    out.add(plaintext);
     started = true;
   }
 
+  private ByteBuf allocate(ChannelHandlerContext ctx, int capacity) {
+    return preferDirect ? ctx.alloc().ioBuffer(capacity) : ctx.alloc().heapBuffer(capacity);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     boolean errorLevel = !(cause instanceof IOException);
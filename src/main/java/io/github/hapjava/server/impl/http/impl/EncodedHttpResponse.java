@@ -0,0 +1,60 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A response that has already been encoded into its wire format, so it can be sent to many
+ * connections while being serialized only once. Each connection writes a retained duplicate of the
+ * shared buffer; the creator has to {@link #release()} it once it has been handed to every
+ * connection.
+ */
+public final class EncodedHttpResponse implements HttpResponse {
+
+  private final HttpResponse response;
+  private final ByteBuf encoded;
+
+  private EncodedHttpResponse(HttpResponse response, ByteBuf encoded) {
+    this.response = response;
+    this.encoded = encoded;
+  }
+
+  public static EncodedHttpResponse encode(HttpResponse response) {
+    // heap buffer, as the cipher works on arrays
+    ByteBuf buf =
+        PooledByteBufAllocator.DEFAULT.heapBuffer(NettyResponseUtil.encodedLength(response));
+    return new EncodedHttpResponse(response, NettyResponseUtil.encode(response, buf));
+  }
+
+  /** A duplicate of the encoded message with its own indices, owned by the caller. */
+  ByteBuf retainedContent() {
+    return encoded.retainedDuplicate();
+  }
+
+  public void release() {
+    encoded.release();
+  }
+
+  @Override
+  public int getStatusCode() {
+    return response.getStatusCode();
+  }
+
+  @Override
+  public ByteBuffer getBody() {
+    return response.getBody();
+  }
+
+  @Override
+  public HttpVersion getVersion() {
+    return response.getVersion();
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    return response.getHeaders();
+  }
+}
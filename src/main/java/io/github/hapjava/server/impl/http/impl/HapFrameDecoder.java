@@ -0,0 +1,35 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import java.util.List;
+
+/**
+ * Splits the inbound stream of an upgraded connection into encrypted HAP frames: a 2 byte little
+ * endian length, that many bytes of ciphertext and a 16 byte authentication tag. Partial frames
+ * stay cumulated until the rest arrives; every complete frame, including its length prefix, is
+ * passed on as a retained slice of the cumulated input, without copying.
+ */
+public class HapFrameDecoder extends ByteToMessageDecoder {
+
+  static final int MAX_FRAME_LENGTH = 0x400;
+  static final int FRAME_OVERHEAD = 2 + 16;
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    if (in.readableBytes() < 2) {
+      return;
+    }
+    int length = in.getUnsignedShortLE(in.readerIndex());
+    if (length > MAX_FRAME_LENGTH) {
+      throw new TooLongFrameException(
+          "Frame length " + length + " exceeds the maximum of " + MAX_FRAME_LENGTH);
+    }
+    if (in.readableBytes() < length + FRAME_OVERHEAD) {
+      return;
+    }
+    out.add(in.readRetainedSlice(length + FRAME_OVERHEAD));
+  }
+}
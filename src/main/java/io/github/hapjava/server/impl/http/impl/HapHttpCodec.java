@@ -0,0 +1,11 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.netty.channel.CombinedChannelDuplexHandler;
+
+/** HTTP codec for HomeKit controllers, see {@link HapRequestDecoder}. */
+class HapHttpCodec extends CombinedChannelDuplexHandler<HapRequestDecoder, HapResponseEncoder> {
+
+  HapHttpCodec(int maxContentLength) {
+    super(new HapRequestDecoder(maxContentLength), new HapResponseEncoder());
+  }
+}
@@ -0,0 +1,35 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HttpMethod;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/** A request as parsed by {@link HapRequestDecoder}, holding on to its body until released. */
+class HapHttpRequest extends DefaultByteBufHolder implements HttpRequest {
+
+  private final HttpMethod method;
+  private final String uri;
+
+  HapHttpRequest(HttpMethod method, String uri, ByteBuf body) {
+    super(body);
+    this.method = method;
+    this.uri = uri;
+  }
+
+  @Override
+  public String getUri() {
+    return uri;
+  }
+
+  @Override
+  public byte[] getBody() {
+    return ByteBufUtil.getBytes(content());
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return method;
+  }
+}
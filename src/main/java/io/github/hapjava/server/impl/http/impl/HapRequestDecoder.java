@@ -0,0 +1,125 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HttpMethod;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Decodes the requests of HomeKit controllers. These are small, always carry their length in a
+ * Content-Length header and only use a few methods, so unlike Netty's general purpose HTTP decoder
+ * this neither keeps the headers nor aggregates chunks: the body is a slice of the received bytes.
+ * Chunked requests are not supported.
+ */
+class HapRequestDecoder extends ByteToMessageDecoder {
+
+  static final int MAX_HEAD_LENGTH = 8192;
+
+  private static final int HEAD_END_LENGTH = 4;
+
+  private final int maxContentLength;
+  private HttpMethod method;
+  private String uri;
+  private int contentLength;
+  // bytes of the head already searched for its end, so a head split across reads is scanned once
+  private int searchedLength;
+
+  HapRequestDecoder(int maxContentLength) {
+    this.maxContentLength = maxContentLength;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    if (method == null && !decodeHead(in)) {
+      return;
+    }
+    if (in.readableBytes() < contentLength) {
+      return;
+    }
+    ByteBuf body = contentLength == 0 ? Unpooled.EMPTY_BUFFER : in.readRetainedSlice(contentLength);
+    out.add(new HapHttpRequest(method, uri, body));
+    method = null;
+    uri = null;
+  }
+
+  private boolean decodeHead(ByteBuf in) {
+    int end = indexOfHeadEnd(in);
+    if (end < 0) {
+      if (in.readableBytes() > MAX_HEAD_LENGTH) {
+        throw new TooLongFrameException("Request head is larger than " + MAX_HEAD_LENGTH);
+      }
+      return false;
+    }
+    String head = in.toString(in.readerIndex(), end - in.readerIndex(), StandardCharsets.US_ASCII);
+    in.readerIndex(end + HEAD_END_LENGTH);
+
+    String[] lines = head.split("\r\n");
+    String[] requestLine = lines[0].split(" ");
+    if (requestLine.length != 3) {
+      throw new DecoderException("Invalid request line: " + lines[0]);
+    }
+    try {
+      method = HttpMethod.valueOf(requestLine[0]);
+    } catch (IllegalArgumentException e) {
+      throw new DecoderException("Unrecognized method: " + requestLine[0]);
+    }
+    uri = requestLine[1];
+    contentLength = 0;
+    for (int i = 1; i < lines.length; i++) {
+      String line = lines[i];
+      int colon = line.indexOf(':');
+      if (colon < 0) {
+        throw new DecoderException("Invalid header: " + line);
+      }
+      String name = line.substring(0, colon).trim();
+      if (name.equalsIgnoreCase("Content-Length")) {
+        contentLength = parseContentLength(line.substring(colon + 1).trim());
+      } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+        throw new DecoderException("Unsupported transfer encoding: " + line);
+      }
+    }
+    return true;
+  }
+
+  /** Finds the empty line ending the head, starting where the previous read left off. */
+  private int indexOfHeadEnd(ByteBuf in) {
+    int start = in.readerIndex();
+    // the end may straddle the previous read, so step back over a partial match
+    int from = start + Math.max(0, searchedLength - (HEAD_END_LENGTH - 1));
+    int to = in.writerIndex();
+    int lf;
+    while ((lf = in.indexOf(from, to, (byte) '\n')) >= 0) {
+      if (lf - start >= HEAD_END_LENGTH - 1
+          && in.getByte(lf - 1) == '\r'
+          && in.getByte(lf - 2) == '\n'
+          && in.getByte(lf - 3) == '\r') {
+        searchedLength = 0;
+        return lf - (HEAD_END_LENGTH - 1);
+      }
+      from = lf + 1;
+    }
+    searchedLength = to - start;
+    return -1;
+  }
+
+  private int parseContentLength(String value) {
+    int length;
+    try {
+      length = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new DecoderException("Invalid Content-Length: " + value);
+    }
+    if (length < 0) {
+      throw new DecoderException("Invalid Content-Length: " + value);
+    }
+    if (length > maxContentLength) {
+      throw new TooLongFrameException("Request body is larger than " + maxContentLength);
+    }
+    return length;
+  }
+}
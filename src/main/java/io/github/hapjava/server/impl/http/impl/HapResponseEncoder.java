@@ -0,0 +1,29 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * Writes the status line, headers and body of a response into a single buffer that is sized up
+ * front. Messages that are already encoded, e.g. shared events, are passed through untouched.
+ */
+class HapResponseEncoder extends MessageToByteEncoder<HttpResponse> {
+
+  HapResponseEncoder() {
+    // the cipher works on arrays
+    super(HttpResponse.class, false);
+  }
+
+  @Override
+  protected ByteBuf allocateBuffer(
+      ChannelHandlerContext ctx, HttpResponse msg, boolean preferDirect) {
+    return ctx.alloc().heapBuffer(NettyResponseUtil.encodedLength(msg));
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, HttpResponse msg, ByteBuf out) {
+    NettyResponseUtil.encode(msg, out);
+  }
+}
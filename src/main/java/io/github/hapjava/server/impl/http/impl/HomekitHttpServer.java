@@ -2,8 +2,13 @@ package io.github.hapjava.server.impl.http.impl;
 
 import io.github.hapjava.server.HomekitWebHandler;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
 import java.net.InetAddress;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class HomekitHttpServer implements HomekitWebHandler {
 
@@ -11,11 +16,24 @@ public class HomekitHttpServer implements HomekitWebHandler {
   private final InetAddress localAddress;
   private final int port;
   private final int nThreads;
+  private final Executor requestExecutor;
+  private final int ioThreads;
+  private final boolean nativeTransport;
+  // the pool created for nThreads, shut down with the server
+  private ExecutorService ownedExecutor = null;
 
   @Override
   public void stop() {
+    ExecutorService executor = this.ownedExecutor;
+    this.ownedExecutor = null;
     if (this.service != null) {
-      this.service.shutdown();
+      // the connections still close their sessions on the executor while the event loops stop
+      Future<?> terminated = this.service.shutdown();
+      if (executor != null) {
+        terminated.addListener(f -> executor.shutdown());
+      }
+    } else if (executor != null) {
+      executor.shutdown();
     }
     this.service = null;
   }
@@ -24,12 +42,66 @@ public class HomekitHttpServer implements HomekitWebHandler {
     this.localAddress = localAddress;
     this.port = port;
     this.nThreads = nThreads;
+    this.requestExecutor = null;
+    this.ioThreads = 0;
+    this.nativeTransport = false;
+  }
+
+  /**
+   * Creates a server that handles requests on the given executor. Requests of a single connection
+   * are still handled one after the other, in the order they were received.
+   *
+   * @param localAddress local address to bind to.
+   * @param port local port to bind to.
+   * @param requestExecutor the executor to handle requests on, which is not shut down by {@link
+   *     #stop()}.
+   */
+  public HomekitHttpServer(InetAddress localAddress, int port, Executor requestExecutor) {
+    this(localAddress, port, requestExecutor, 0, false);
+  }
+
+  /**
+   * Creates a server that handles requests on the given executor and reads and writes connections
+   * on the given number of I/O threads.
+   *
+   * @param localAddress local address to bind to.
+   * @param port local port to bind to.
+   * @param requestExecutor the executor to handle requests on, which is not shut down by {@link
+   *     #stop()}.
+   * @param ioThreads the number of threads serving the connections, or 0 for twice the number of
+   *     available processors.
+   * @param nativeTransport whether to use the native epoll transport when
+   *     netty-transport-native-epoll is on the classpath and supports the platform. Falls back to
+   *     NIO otherwise.
+   */
+  public HomekitHttpServer(
+      InetAddress localAddress,
+      int port,
+      Executor requestExecutor,
+      int ioThreads,
+      boolean nativeTransport) {
+    if (ioThreads < 0) {
+      throw new IllegalArgumentException("ioThreads must not be negative");
+    }
+    this.localAddress = localAddress;
+    this.port = port;
+    this.nThreads = 0;
+    this.requestExecutor = requestExecutor;
+    this.ioThreads = ioThreads;
+    this.nativeTransport = nativeTransport;
   }
 
   @Override
   public CompletableFuture<Integer> start(HomekitClientConnectionFactory clientConnectionFactory) {
     if (service == null) {
-      this.service = NettyHomekitHttpService.create(localAddress, port, nThreads);
+      Executor executor = requestExecutor;
+      if (executor == null) {
+        ownedExecutor =
+            Executors.newFixedThreadPool(nThreads, new DefaultThreadFactory("hap-java-request"));
+        executor = ownedExecutor;
+      }
+      this.service =
+          NettyHomekitHttpService.create(localAddress, port, executor, ioThreads, nativeTransport);
       return this.service.create(clientConnectionFactory);
     } else {
       throw new RuntimeException("HomekitHttpServer can only be started once");
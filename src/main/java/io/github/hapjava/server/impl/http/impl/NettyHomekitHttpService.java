@@ -5,8 +5,6 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.concurrent.*;
@@ -14,6 +12,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,29 +25,50 @@ class NettyHomekitHttpService {
   private final ChannelGroup allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
   private final InetAddress localAddress;
   private final int port;
-  private final int nThreads;
+  private final Executor requestExecutor;
+  private final NettyTransport transport;
 
-  public static NettyHomekitHttpService create(InetAddress localAddress, int port, int nThreads) {
-    return new NettyHomekitHttpService(localAddress, port, nThreads);
+  public static NettyHomekitHttpService create(
+      InetAddress localAddress,
+      int port,
+      Executor requestExecutor,
+      int ioThreads,
+      boolean nativeTransport) {
+    return new NettyHomekitHttpService(
+        localAddress, port, requestExecutor, ioThreads, NettyTransport.select(nativeTransport));
   }
 
-  private NettyHomekitHttpService(InetAddress localAddress, int port, int nThreads) {
-    bossGroup = new NioEventLoopGroup();
-    workerGroup = new NioEventLoopGroup();
+  private NettyHomekitHttpService(
+      InetAddress localAddress,
+      int port,
+      Executor requestExecutor,
+      int ioThreads,
+      NettyTransport transport) {
+    logger.trace("Using {} transport", transport);
+    // a single listening socket needs no more than one thread to accept on
+    bossGroup = transport.newEventLoopGroup(1);
+    workerGroup = transport.newEventLoopGroup(ioThreads);
+    this.transport = transport;
     this.localAddress = localAddress;
     this.port = port;
-    this.nThreads = nThreads;
+    this.requestExecutor = requestExecutor;
   }
 
   public CompletableFuture<Integer> create(HomekitClientConnectionFactory connectionFactory) {
     final CompletableFuture<Integer> portFuture = new CompletableFuture<Integer>();
     ServerBootstrap b = new ServerBootstrap();
     b.group(bossGroup, workerGroup)
-        .channel(NioServerSocketChannel.class)
+        .channel(transport.serverChannelClass())
         .handler(new LoggingHandler(LogLevel.INFO))
-        .childHandler(new ServerInitializer(connectionFactory, allChannels, nThreads))
+        .childHandler(new ServerInitializer(connectionFactory, allChannels, requestExecutor))
         .option(ChannelOption.SO_BACKLOG, 128)
-        .childOption(ChannelOption.SO_KEEPALIVE, true);
+        .option(ChannelOption.SO_REUSEADDR, true)
+        .childOption(ChannelOption.SO_KEEPALIVE, true)
+        // responses and events are written whole, so waiting to coalesce them only adds latency
+        .childOption(ChannelOption.TCP_NODELAY, true)
+        // events are small, so a client that stopped reading is noticed after a few of them
+        .childOption(
+            ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(8 * 1024, 32 * 1024));
     final ChannelFuture bindFuture = b.bind(localAddress, port);
     bindFuture.addListener(
         new GenericFutureListener<Future<? super Void>>() {
@@ -73,9 +93,11 @@ class NettyHomekitHttpService {
     return portFuture;
   }
 
-  public void shutdown() {
+  /** @return a future completing once the connections' event loops have terminated */
+  public Future<?> shutdown() {
     workerGroup.shutdownGracefully();
     bossGroup.shutdownGracefully();
+    return workerGroup.terminationFuture();
   }
 
   public void resetConnections() {
@@ -1,33 +1,116 @@
 package io.github.hapjava.server.impl.http.impl;
 
 import io.github.hapjava.server.impl.http.HttpResponse;
-import io.netty.buffer.Unpooled;
-import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.handler.codec.http.HttpVersion;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Map.Entry;
 
 class NettyResponseUtil {
 
-  private static final HttpVersion EVENT_VERSION = new HttpVersion("EVENT", 1, 0, true);
+  private static final String EVENT_VERSION = "EVENT/1.0";
+  private static final String HTTP_VERSION = "HTTP/1.1";
+  private static final String CRLF = "\r\n";
+  private static final byte[] HEAD_END =
+      (CRLF + HttpHeaderNames.CONNECTION + ": " + HttpHeaderValues.KEEP_ALIVE + CRLF + CRLF)
+          .getBytes(StandardCharsets.US_ASCII);
+  // only a handful of response kinds exist, anything beyond that is encoded without a template
+  private static final int MAX_TEMPLATES = 64;
+  // copied on write, responses only scan it
+  private static volatile Template[] templates = new Template[0];
 
-  public static FullHttpResponse createResponse(HttpResponse homekitResponse) {
+  /** Writes the status line, headers and body of the response to the supplied buffer. */
+  public static ByteBuf encode(HttpResponse homekitResponse, ByteBuf buf) {
+    ByteBuffer body = homekitResponse.getBody().duplicate();
+    buf.writeBytes(template(homekitResponse));
+    writeDigits(buf, body.remaining());
+    buf.writeBytes(HEAD_END);
+    buf.writeBytes(body);
+    return buf;
+  }
+
+  /** @return the exact encoded length of the response. */
+  public static int encodedLength(HttpResponse homekitResponse) {
+    int length = homekitResponse.getBody().remaining();
+    return template(homekitResponse).length
+        + Integer.toString(length).length()
+        + HEAD_END.length
+        + length;
+  }
+
+  /**
+   * The status line and headers of a response kind, up to the value of the Content-Length header
+   * which, like the body, differs between responses.
+   */
+  private static byte[] template(HttpResponse homekitResponse) {
+    HttpResponse.HttpVersion version = homekitResponse.getVersion();
+    int statusCode = homekitResponse.getStatusCode();
+    // responses of one kind share a constant headers map, so comparing by identity suffices
+    Map<String, String> headers = homekitResponse.getHeaders();
+    for (Template template : templates) {
+      if (template.headers == headers
+          && template.statusCode == statusCode
+          && template.version == version) {
+        return template.head;
+      }
+    }
+    Template template = new Template(version, statusCode, headers);
+    addTemplate(template);
+    return template.head;
+  }
+
+  private static synchronized void addTemplate(Template template) {
+    Template[] current = templates;
+    if (current.length < MAX_TEMPLATES) {
+      Template[] added = Arrays.copyOf(current, current.length + 1);
+      added[current.length] = template;
+      templates = added;
+    }
+  }
+
+  private static void writeDigits(ByteBuf buf, int value) {
+    int divisor = 1;
+    while (divisor <= value / 10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      buf.writeByte('0' + value / divisor % 10);
+    }
+  }
+
+  private static final class Template {
+    final HttpResponse.HttpVersion version;
+    final int statusCode;
+    final Map<String, String> headers;
+    final byte[] head;
+
+    Template(HttpResponse.HttpVersion version, int statusCode, Map<String, String> headers) {
+      this.version = version;
+      this.statusCode = statusCode;
+      this.headers = headers;
+      this.head = createHead(version, statusCode, headers);
+    }
 
-    FullHttpResponse response =
-        new DefaultFullHttpResponse(
-            homekitResponse.getVersion() == HttpResponse.HttpVersion.EVENT_1_0
-                ? EVENT_VERSION
-                : HttpVersion.HTTP_1_1,
-            HttpResponseStatus.valueOf(homekitResponse.getStatusCode()),
-            Unpooled.copiedBuffer(homekitResponse.getBody()));
-    for (Entry<String, String> header : homekitResponse.getHeaders().entrySet()) {
-      response.headers().add(header.getKey(), header.getValue());
+    private static byte[] createHead(
+        HttpResponse.HttpVersion version, int statusCode, Map<String, String> headers) {
+      HttpResponseStatus status = HttpResponseStatus.valueOf(statusCode);
+      StringBuilder head = new StringBuilder();
+      head.append(version == HttpResponse.HttpVersion.EVENT_1_0 ? EVENT_VERSION : HTTP_VERSION)
+          .append(' ')
+          .append(status.codeAsText())
+          .append(' ')
+          .append(status.reasonPhrase())
+          .append(CRLF);
+      for (Entry<String, String> header : headers.entrySet()) {
+        head.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+      }
+      head.append(HttpHeaderNames.CONTENT_LENGTH).append(": ");
+      return head.toString().getBytes(StandardCharsets.US_ASCII);
     }
-    response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
-    response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
-    return response;
   }
 }
@@ -0,0 +1,89 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The event loops and server channel to listen with. The native epoll transport is looked up
+ * reflectively, so it is only used when netty-transport-native-epoll is on the classpath and its
+ * library loads on this platform.
+ */
+class NettyTransport {
+
+  private static final Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+
+  private static final String EPOLL = "io.netty.channel.epoll.Epoll";
+  private static final String EPOLL_EVENT_LOOP_GROUP = "io.netty.channel.epoll.EpollEventLoopGroup";
+  private static final String EPOLL_SERVER_SOCKET_CHANNEL =
+      "io.netty.channel.epoll.EpollServerSocketChannel";
+
+  static final NettyTransport NIO = new NettyTransport("nio", null, NioServerSocketChannel.class);
+
+  private final String name;
+  // null for NIO
+  private final Class<? extends EventLoopGroup> groupClass;
+  private final Class<? extends ServerChannel> serverChannelClass;
+
+  private NettyTransport(
+      String name,
+      Class<? extends EventLoopGroup> groupClass,
+      Class<? extends ServerChannel> serverChannelClass) {
+    this.name = name;
+    this.groupClass = groupClass;
+    this.serverChannelClass = serverChannelClass;
+  }
+
+  /**
+   * @param preferNative whether to use the native transport where it is available
+   * @return the epoll transport if preferred and available, NIO otherwise
+   */
+  static NettyTransport select(boolean preferNative) {
+    if (preferNative) {
+      try {
+        ClassLoader loader = NettyTransport.class.getClassLoader();
+        Class<?> epoll = Class.forName(EPOLL, true, loader);
+        if ((Boolean) epoll.getMethod("isAvailable").invoke(null)) {
+          return new NettyTransport(
+              "epoll",
+              Class.forName(EPOLL_EVENT_LOOP_GROUP, true, loader).asSubclass(EventLoopGroup.class),
+              Class.forName(EPOLL_SERVER_SOCKET_CHANNEL, true, loader)
+                  .asSubclass(ServerChannel.class));
+        }
+        logger.info(
+            "Native epoll transport is unavailable, using NIO",
+            (Throwable) epoll.getMethod("unavailabilityCause").invoke(null));
+      } catch (ReflectiveOperationException | LinkageError e) {
+        logger.info("Native epoll transport is not on the classpath, using NIO");
+      }
+    }
+    return NIO;
+  }
+
+  /**
+   * @param nThreads the number of event loops, or 0 for netty's default
+   * @return a new event loop group for this transport
+   */
+  EventLoopGroup newEventLoopGroup(int nThreads) {
+    if (groupClass == null) {
+      return new NioEventLoopGroup(nThreads);
+    }
+    try {
+      return groupClass.getConstructor(int.class).newInstance(nThreads);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot create " + name + " event loop group", e);
+    }
+  }
+
+  Class<? extends ServerChannel> serverChannelClass() {
+    return serverChannelClass;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,79 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on another executor. Each task sees
+ * the effects of the ones before it, whichever thread they ran on.
+ */
+class SerialExecutor implements Executor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SerialExecutor.class);
+
+  private final Queue<Runnable> tasks = new ArrayDeque<>();
+  private final Executor executor;
+  // whether a task has been handed to the executor and not finished yet; tasks queue behind it
+  private boolean active;
+
+  SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * @throws java.util.concurrent.RejectedExecutionException if the executor rejects the task, which
+   *     the caller then has to handle itself
+   */
+  @Override
+  public synchronized void execute(Runnable task) {
+    if (active) {
+      tasks.add(task);
+      return;
+    }
+    executor.execute(() -> run(task));
+    active = true;
+  }
+
+  private void run(Runnable task) {
+    try {
+      task.run();
+    } finally {
+      runNext();
+    }
+  }
+
+  /**
+   * Hands the next task to the executor. There is no caller to handle a rejection on the worker
+   * thread, and queued tasks such as closing a connection must not be lost, so rejected tasks run
+   * here instead, in order.
+   */
+  private void runNext() {
+    Runnable rejected;
+    while ((rejected = scheduleNext()) != null) {
+      try {
+        rejected.run();
+      } catch (RuntimeException e) {
+        LOGGER.warn("Task rejected by the executor failed", e);
+      }
+    }
+  }
+
+  /** @return the next task if the executor rejected it, or null if there was none to schedule */
+  private synchronized Runnable scheduleNext() {
+    Runnable next = tasks.poll();
+    if (next == null) {
+      active = false;
+      return null;
+    }
+    try {
+      executor.execute(() -> run(next));
+      return null;
+    } catch (RuntimeException e) {
+      // still active, so tasks submitted meanwhile queue up behind the rejected one
+      return next;
+    }
+  }
+}
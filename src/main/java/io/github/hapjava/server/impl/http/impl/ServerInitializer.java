@@ -1,40 +1,63 @@
 package io.github.hapjava.server.impl.http.impl;
 
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpRequestDecoder;
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
-import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import java.util.concurrent.Executor;
 
 class ServerInitializer extends ChannelInitializer<SocketChannel> {
 
-  private static final int MAX_POST = 1000000;
+  // the largest HAP bodies are write requests to a handful of characteristics
+  private static final int MAX_CONTENT_LENGTH = 64 * 1024;
 
   public static final String HTTP_HANDLER_NAME = "http";
+  static final String FLUSH_HANDLER_NAME = "flush";
 
   private final HomekitClientConnectionFactory homekit;
   private final ChannelGroup allChannels;
-  private final EventExecutorGroup blockingExecutorGroup;
+  private final Executor requestExecutor;
 
   public ServerInitializer(
-      HomekitClientConnectionFactory homekit, ChannelGroup allChannels, int nThreads) {
+      HomekitClientConnectionFactory homekit, ChannelGroup allChannels, Executor requestExecutor) {
     this.homekit = homekit;
     this.allChannels = allChannels;
-    this.blockingExecutorGroup = new DefaultEventExecutorGroup(nThreads);
+    this.requestExecutor = requestExecutor;
   }
 
   @Override
   protected void initChannel(SocketChannel ch) throws Exception {
     ChannelPipeline pipeline = ch.pipeline();
+    pipeline.addLast(FLUSH_HANDLER_NAME, newFlushConsolidationHandler());
     pipeline.addLast(new LoggingHandler());
-    pipeline.addLast(HTTP_HANDLER_NAME, new HttpResponseEncoderAggregate());
-    pipeline.addLast(new HttpRequestDecoder());
-    pipeline.addLast(new HttpObjectAggregator(MAX_POST));
-    pipeline.addLast(blockingExecutorGroup, new AccessoryHandler(homekit));
+    pipeline.addLast(HTTP_HANDLER_NAME, new HapHttpCodec(MAX_CONTENT_LENGTH));
+    pipeline.addLast(new AccessoryHandler(homekit, requestExecutor));
     allChannels.add(ch);
   }
+
+  /**
+   * Responses and events are written from other threads, each with its own flush. This lets those
+   * of one event loop tick share a single flush.
+   */
+  private static FlushConsolidationHandler newFlushConsolidationHandler() {
+    return new FlushConsolidationHandler(
+        FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true);
+  }
+
+  /**
+   * Switches the pipeline to the encrypted session. The flushes are consolidated on the tail side
+   * of the encryption, so the writes of one tick are encrypted together and share frames.
+   *
+   * @param pipeline the pipeline of the connection
+   * @param connection the connection holding the session keys
+   */
+  static void upgrade(ChannelPipeline pipeline, HomekitClientConnection connection) {
+    pipeline.addBefore(HTTP_HANDLER_NAME, "binary", new BinaryHandler(connection));
+    pipeline.addBefore("binary", "frames", new HapFrameDecoder());
+    pipeline.remove(FLUSH_HANDLER_NAME);
+    pipeline.addBefore(HTTP_HANDLER_NAME, FLUSH_HANDLER_NAME, newFlushConsolidationHandler());
+  }
 }
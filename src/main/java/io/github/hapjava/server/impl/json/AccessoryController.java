@@ -3,112 +3,96 @@ package io.github.hapjava.server.impl.json;
 import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.characteristics.Characteristic;
 import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.HomekitScheduler;
 import io.github.hapjava.server.impl.http.HttpResponse;
-import io.github.hapjava.services.Service;
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-import javax.json.JsonWriter;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class AccessoryController {
 
+  private static final Logger logger = LoggerFactory.getLogger(AccessoryController.class);
+
   private final HomekitRegistry registry;
 
   public AccessoryController(HomekitRegistry registry) {
     this.registry = registry;
   }
 
-  public HttpResponse listing() throws Exception {
-    JsonArrayBuilder accessories = Json.createArrayBuilder();
-
-    Map<Long, List<CompletableFuture<JsonObject>>> accessoryServiceFutures = new HashMap<>();
-    for (HomekitAccessory accessory : registry.getAccessories()) {
-      List<CompletableFuture<JsonObject>> serviceFutures = new ArrayList<>();
-
-      Map<Integer, Service> servicesByInterfaceId = registry.getServices(accessory.getId());
-
-      Map<Object, Integer> iidLookup = new HashMap<>();
-      iidLookup.putAll(swapKeyAndValue(servicesByInterfaceId));
-      iidLookup.putAll(swapKeyAndValue(registry.getCharacteristics(accessory.getId())));
-
-      for (Service service : servicesByInterfaceId.values()) {
-        serviceFutures.add(toJson(service, iidLookup, accessory.getPrimaryService() == service));
-      }
-
-      accessoryServiceFutures.put(accessory.getId(), serviceFutures);
-    }
-
-    Map<Long, JsonArrayBuilder> serviceArrayBuilders = new HashMap<>();
-    for (Entry<Long, List<CompletableFuture<JsonObject>>> entry :
-        accessoryServiceFutures.entrySet()) {
-      JsonArrayBuilder arr = Json.createArrayBuilder();
-      for (CompletableFuture<JsonObject> future : entry.getValue()) {
-        arr.add(future.join());
-      }
-      serviceArrayBuilders.put(entry.getKey(), arr);
-    }
-
-    for (HomekitAccessory accessory : registry.getAccessories()) {
-      accessories.add(
-          Json.createObjectBuilder()
-              .add("aid", accessory.getId())
-              .add("services", serviceArrayBuilders.get(accessory.getId())));
-    }
-
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        JsonWriter jsonWriter = Json.createWriter(baos)) {
-      jsonWriter.write(Json.createObjectBuilder().add("accessories", accessories).build());
-      return new HapJsonResponse(baos.toByteArray());
+  public CompletableFuture<HttpResponse> listing() {
+    AccessoryMetadataCache cache = registry.getMetadataCache();
+    List<CompletableFuture<AccessorySkeleton>> skeletonFutures = new ArrayList<>();
+    // only accessories whose tables are published, so the listing matches the fingerprint
+    for (HomekitAccessory accessory : registry.getPublishedAccessories().getAccessories()) {
+      skeletonFutures.add(cache.get(registry, accessory));
     }
+    return CompletableFuture.allOf(
+            skeletonFutures.toArray(new CompletableFuture<?>[skeletonFutures.size()]))
+        .thenCompose(
+            v -> {
+              List<AccessorySkeleton> skeletons = new ArrayList<>(skeletonFutures.size());
+              for (CompletableFuture<AccessorySkeleton> future : skeletonFutures) {
+                skeletons.add(future.join());
+              }
+              return listing(skeletons);
+            });
   }
 
-  private CompletableFuture<JsonObject> toJson(
-      Service service, Map<Object, Integer> iidLookup, boolean isPrimary) throws Exception {
-    String shortType =
-        service.getType().replaceAll("^0*([0-9a-fA-F]+)-0000-1000-8000-0026BB765291$", "$1");
-    JsonObjectBuilder builder =
-        Json.createObjectBuilder().add("iid", iidLookup.get(service)).add("type", shortType);
-    List<Characteristic> characteristics = service.getCharacteristics();
-    Collection<CompletableFuture<JsonObject>> characteristicFutures =
-        new ArrayList<>(characteristics.size());
-    for (Characteristic characteristic : characteristics) {
-      Integer iid = iidLookup.get(characteristic);
-      characteristicFutures.add(characteristic.toJson(iid));
+  private CompletableFuture<HttpResponse> listing(List<AccessorySkeleton> skeletons) {
+    int length = 32;
+    // retrieve all values concurrently, then splice them in order
+    List<CompletableFuture<CapturedValue>> valueFutures = new ArrayList<>();
+    for (AccessorySkeleton skeleton : skeletons) {
+      length += skeleton.getSerializedLength();
+      for (Characteristic characteristic : skeleton.getReadableCharacteristics()) {
+        valueFutures.add(readValue(characteristic));
+      }
     }
 
+    int capacity = length + 16 * valueFutures.size();
     return CompletableFuture.allOf(
-            characteristicFutures.toArray(new CompletableFuture<?>[characteristicFutures.size()]))
+            valueFutures.toArray(new CompletableFuture<?>[valueFutures.size()]))
         .thenApply(
             v -> {
-              JsonArrayBuilder jsonCharacteristics = Json.createArrayBuilder();
-              characteristicFutures.stream()
-                  .map(future -> future.join())
-                  .forEach(c -> jsonCharacteristics.add(c));
-              builder.add("characteristics", jsonCharacteristics);
-
-              if (!service.getLinkedServices().isEmpty()) {
-                JsonArrayBuilder jsonLinkedServices = Json.createArrayBuilder();
-                service.getLinkedServices().stream()
-                    .map(iidLookup::get)
-                    .forEach(jsonLinkedServices::add);
-                builder.add("linked", jsonLinkedServices);
+              CapturedValue[] values = new CapturedValue[valueFutures.size()];
+              for (int i = 0; i < values.length; i++) {
+                values[i] = valueFutures.get(i).join();
+              }
+              HapJsonWriter writer = new HapJsonWriter(capacity);
+              writer.beginObject().name("accessories").beginArray();
+              int offset = 0;
+              for (AccessorySkeleton skeleton : skeletons) {
+                skeleton.write(writer, values, offset);
+                offset += skeleton.getReadableCharacteristics().length;
               }
-              builder.add("primary", isPrimary);
-              return builder.build();
+              writer.endArray().endObject();
+              return new HapJsonResponse(writer.toByteBuffer());
             });
   }
 
-  private <K, V> Map<V, K> swapKeyAndValue(Map<K, V> map) {
-    return map.entrySet().stream().collect(Collectors.toMap(Entry::getValue, Entry::getKey));
+  /**
+   * A value that cannot be retrieved in time is listed as null, as the characteristic JSON used to
+   * be. A fresh holder is used in that case, as the late value may still arrive while writing.
+   */
+  private CompletableFuture<CapturedValue> readValue(Characteristic characteristic) {
+    CapturedValue value = new CapturedValue();
+    CompletableFuture<CapturedValue> result = new CompletableFuture<>();
+    value
+        .read(characteristic)
+        .whenComplete(
+            (v, t) -> {
+              if (t != null) {
+                logger.warn("Could not retrieve value " + characteristic.getClass().getName(), t);
+                result.complete(new CapturedValue());
+              } else {
+                result.complete(value);
+              }
+            });
+    long timeout = registry.getReadTimeout().toMillis();
+    return HomekitScheduler.completeOnTimeout(
+        result, new CapturedValue(), timeout, TimeUnit.MILLISECONDS);
   }
 }
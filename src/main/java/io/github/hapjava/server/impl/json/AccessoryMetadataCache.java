@@ -0,0 +1,77 @@
+package io.github.hapjava.server.impl.json;
+
+import io.github.hapjava.accessories.HomekitAccessory;
+import io.github.hapjava.server.impl.HomekitRegistry;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the static part of each accessory's /accessories entry, so a listing only has to retrieve
+ * the characteristic values. Entries are built on first use and dropped when the registry changes.
+ */
+public class AccessoryMetadataCache {
+
+  private final Map<Long, CompletableFuture<AccessorySkeleton>> skeletons =
+      new ConcurrentHashMap<>();
+
+  CompletableFuture<AccessorySkeleton> get(HomekitRegistry registry, HomekitAccessory accessory) {
+    Long aid = accessory.getId();
+    CompletableFuture<AccessorySkeleton> skeleton =
+        skeletons.computeIfAbsent(aid, id -> AccessorySkeleton.build(registry, accessory));
+    // don't hold on to a failure, the next listing should try again
+    skeleton.whenComplete(
+        (s, t) -> {
+          if (t != null) {
+            skeletons.remove(aid, skeleton);
+          }
+        });
+    return skeleton;
+  }
+
+  /**
+   * Computes a fingerprint of everything but the characteristic values in the /accessories listing,
+   * building the entries that are not cached yet.
+   *
+   * @param registry the registry the accessories belong to
+   * @param accessories the accessories to fingerprint, in a stable order, e.g. those of {@link
+   *     HomekitRegistry#getPublishedAccessories()}
+   * @return a future completing with the fingerprint, which only changes with the metadata
+   */
+  public CompletableFuture<String> fingerprint(
+      HomekitRegistry registry, List<HomekitAccessory> accessories) {
+    List<CompletableFuture<AccessorySkeleton>> skeletons = new ArrayList<>(accessories.size());
+    for (HomekitAccessory accessory : accessories) {
+      skeletons.add(get(registry, accessory));
+    }
+    return CompletableFuture.allOf(skeletons.toArray(new CompletableFuture<?>[skeletons.size()]))
+        .thenApply(
+            v -> {
+              MessageDigest digest;
+              try {
+                digest = MessageDigest.getInstance("SHA-256");
+              } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+              }
+              for (CompletableFuture<AccessorySkeleton> skeleton : skeletons) {
+                skeleton.join().digest(digest);
+              }
+              return Base64.getEncoder().encodeToString(digest.digest());
+            });
+  }
+
+  /** Drops the cached entry of one accessory. */
+  public void invalidate(long aid) {
+    skeletons.remove(aid);
+  }
+
+  /** Drops all cached entries. */
+  public void clear() {
+    skeletons.clear();
+  }
+}
@@ -0,0 +1,167 @@
+package io.github.hapjava.server.impl.json;
+
+import io.github.hapjava.accessories.HomekitAccessory;
+import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.services.Service;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import javax.json.Json;
+import javax.json.JsonObject;
+
+/**
+ * The pre-serialized /accessories entry of one accessory. Everything but the characteristic values
+ * is static until the registry is reset, so it is kept as JSON fragments with a gap wherever a
+ * readable characteristic's value goes.
+ */
+class AccessorySkeleton {
+
+  private final byte[][] fragments;
+  private final Characteristic[] readable;
+
+  private AccessorySkeleton(List<byte[]> fragments, List<Characteristic> readable) {
+    this.fragments = fragments.toArray(new byte[fragments.size()][]);
+    this.readable = readable.toArray(new Characteristic[readable.size()]);
+  }
+
+  /** @return the characteristics whose values must be supplied to {@link #write}, in order. */
+  Characteristic[] getReadableCharacteristics() {
+    return readable;
+  }
+
+  /** Adds the static parts of the entry to the digest, separated so they cannot run together. */
+  void digest(MessageDigest digest) {
+    for (byte[] fragment : fragments) {
+      digest.update(fragment);
+      digest.update((byte) 0);
+    }
+  }
+
+  int getSerializedLength() {
+    int length = 0;
+    for (byte[] fragment : fragments) {
+      length += fragment.length;
+    }
+    return length;
+  }
+
+  /**
+   * Writes the accessory with its live values.
+   *
+   * @param writer the writer, positioned where the accessory object goes.
+   * @param values the captured values, one per readable characteristic.
+   * @param offset index of this accessory's first value in {@code values}.
+   */
+  void write(HapJsonWriter writer, CapturedValue[] values, int offset) {
+    writer.rawValue(fragments[0]);
+    for (int i = 0; i < readable.length; i++) {
+      writer.name("value");
+      values[offset + i].writeTo(writer);
+      writer.raw(fragments[i + 1]);
+    }
+  }
+
+  static CompletableFuture<AccessorySkeleton> build(
+      HomekitRegistry registry, HomekitAccessory accessory) {
+    Map<Integer, Service> servicesByInterfaceId = registry.getServices(accessory.getId());
+
+    Map<Object, Integer> iidLookup = new HashMap<>();
+    for (Entry<Integer, Service> entry : servicesByInterfaceId.entrySet()) {
+      iidLookup.put(entry.getValue(), entry.getKey());
+    }
+    for (Entry<Integer, Characteristic> entry :
+        registry.getCharacteristics(accessory.getId()).entrySet()) {
+      iidLookup.put(entry.getValue(), entry.getKey());
+    }
+
+    List<CompletableFuture<JsonObject>> characteristicFutures = new ArrayList<>();
+    for (Service service : servicesByInterfaceId.values()) {
+      for (Characteristic characteristic : service.getCharacteristics()) {
+        characteristicFutures.add(characteristic.toJson(iidLookup.get(characteristic)));
+      }
+    }
+
+    return CompletableFuture.allOf(
+            characteristicFutures.toArray(new CompletableFuture<?>[characteristicFutures.size()]))
+        .thenApply(
+            v -> {
+              Builder builder = new Builder();
+              builder.append("{\"aid\":" + accessory.getId() + ",\"services\":[");
+              int index = 0;
+              boolean firstService = true;
+              for (Service service : servicesByInterfaceId.values()) {
+                if (!firstService) {
+                  builder.append(",");
+                }
+                firstService = false;
+                String shortType =
+                    service
+                        .getType()
+                        .replaceAll("^0*([0-9a-fA-F]+)-0000-1000-8000-0026BB765291$", "$1");
+                builder.append(
+                    "{\"iid\":"
+                        + iidLookup.get(service)
+                        + ",\"type\":"
+                        + Json.createValue(shortType)
+                        + ",\"characteristics\":[");
+                List<Characteristic> characteristics = service.getCharacteristics();
+                for (int i = 0; i < characteristics.size(); i++) {
+                  if (i > 0) {
+                    builder.append(",");
+                  }
+                  builder.characteristic(
+                      characteristics.get(i), characteristicFutures.get(index++).join());
+                }
+                builder.append("]");
+                if (!service.getLinkedServices().isEmpty()) {
+                  StringJoiner linked = new StringJoiner(",", ",\"linked\":[", "]");
+                  for (Service linkedService : service.getLinkedServices()) {
+                    linked.add(String.valueOf(iidLookup.get(linkedService)));
+                  }
+                  builder.append(linked.toString());
+                }
+                builder.append(",\"primary\":" + (accessory.getPrimaryService() == service) + "}");
+              }
+              builder.append("]}");
+              return builder.build();
+            });
+  }
+
+  private static class Builder {
+    private final List<byte[]> fragments = new ArrayList<>();
+    private final List<Characteristic> readable = new ArrayList<>();
+    private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+
+    void append(String json) {
+      byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+      current.write(bytes, 0, bytes.length);
+    }
+
+    void characteristic(Characteristic characteristic, JsonObject json) {
+      if (!json.containsKey("value")) {
+        append(json.toString());
+        return;
+      }
+      // leave the object open; the value and the closing brace are added per request
+      String withoutValue = Json.createObjectBuilder(json).remove("value").build().toString();
+      append(withoutValue.substring(0, withoutValue.length() - 1));
+      fragments.add(current.toByteArray());
+      current.reset();
+      readable.add(characteristic);
+      append("}");
+    }
+
+    AccessorySkeleton build() {
+      fragments.add(current.toByteArray());
+      return new AccessorySkeleton(fragments, readable);
+    }
+  }
+}
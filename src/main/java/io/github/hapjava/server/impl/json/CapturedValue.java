@@ -0,0 +1,105 @@
+package io.github.hapjava.server.impl.json;
+
+import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.characteristics.CharacteristicValueSink;
+import java.util.concurrent.CompletableFuture;
+import javax.json.JsonValue;
+
+/**
+ * Holds a characteristic value until it can be written. Values are retrieved concurrently and
+ * complete in any order, but must be written to the response in request order.
+ */
+class CapturedValue implements CharacteristicValueSink {
+
+  private enum Kind {
+    NULL,
+    BOOLEAN,
+    LONG,
+    DOUBLE,
+    STRING,
+    JSON
+  }
+
+  private volatile Kind kind = Kind.NULL;
+  private long longValue;
+  private double doubleValue;
+  private Object objectValue;
+
+  @Override
+  public void nullValue() {
+    kind = Kind.NULL;
+  }
+
+  @Override
+  public void value(boolean value) {
+    longValue = value ? 1 : 0;
+    kind = Kind.BOOLEAN;
+  }
+
+  @Override
+  public void value(int value) {
+    value((long) value);
+  }
+
+  @Override
+  public void value(long value) {
+    longValue = value;
+    kind = Kind.LONG;
+  }
+
+  @Override
+  public void value(double value) {
+    doubleValue = value;
+    kind = Kind.DOUBLE;
+  }
+
+  @Override
+  public void value(String value) {
+    objectValue = value;
+    kind = Kind.STRING;
+  }
+
+  @Override
+  public void value(JsonValue value) {
+    objectValue = value;
+    kind = Kind.JSON;
+  }
+
+  /**
+   * Starts retrieving the characteristic's value into this holder.
+   *
+   * @return a future completing once the value is captured, exceptionally if it cannot be read.
+   */
+  CompletableFuture<Void> read(Characteristic characteristic) {
+    try {
+      return characteristic.supplyValueAsync(this);
+    } catch (Exception e) {
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+  }
+
+  /** Passes the captured value on to another sink. */
+  void writeTo(CharacteristicValueSink sink) {
+    switch (kind) {
+      case BOOLEAN:
+        sink.value(longValue != 0);
+        break;
+      case LONG:
+        sink.value(longValue);
+        break;
+      case DOUBLE:
+        sink.value(doubleValue);
+        break;
+      case STRING:
+        sink.value((String) objectValue);
+        break;
+      case JSON:
+        sink.value((JsonValue) objectValue);
+        break;
+      default:
+        sink.nullValue();
+    }
+  }
+}
@@ -1,17 +1,28 @@
 package io.github.hapjava.server.impl.json;
 
 import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.characteristics.CharacteristicEnum;
 import io.github.hapjava.characteristics.EventableCharacteristic;
+import io.github.hapjava.characteristics.impl.base.EnumCharacteristic;
 import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.HomekitScheduler;
 import io.github.hapjava.server.impl.connections.SubscriptionManager;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HttpRequest;
 import io.github.hapjava.server.impl.http.HttpResponse;
 import io.github.hapjava.server.impl.responses.NotFoundResponse;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import javax.json.*;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParsingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,85 +38,328 @@ public class CharacteristicsController {
     this.subscriptions = subscriptions;
   }
 
-  public HttpResponse get(HttpRequest request) throws Exception {
+  public CompletableFuture<HttpResponse> get(HttpRequest request) throws Exception {
     String uri = request.getUri();
     // Characteristics are requested with /characteristics?id=1.1,2.1,3.1
     String query = uri.substring("/characteristics?id=".length());
     String[] ids = query.split(",");
-    JsonArrayBuilder characteristics = Json.createArrayBuilder();
+    long timeout = registry.getReadTimeout().toMillis();
+    List<Read> reads = new ArrayList<>(ids.length);
     for (String id : ids) {
       String[] parts = id.split("\\.");
       if (parts.length != 2) {
         logger.warn("Unexpected characteristics request: " + uri);
-        return new NotFoundResponse();
+        return CompletableFuture.completedFuture(new NotFoundResponse());
       }
       long aid = Long.parseLong(parts[0]);
       int iid = Integer.parseInt(parts[1]);
-      JsonObjectBuilder characteristic = Json.createObjectBuilder();
-      Map<Integer, Characteristic> characteristicMap = registry.getCharacteristics(aid);
-      if (!characteristicMap.isEmpty()) {
-        Characteristic targetCharacteristic = characteristicMap.get(iid);
-        if (targetCharacteristic != null) {
-          targetCharacteristic.supplyValue(characteristic);
-
-          characteristics.add(characteristic.add("aid", aid).add("iid", iid).build());
-        } else {
+      Characteristic targetCharacteristic = registry.getCharacteristic(aid, iid);
+      if (targetCharacteristic != null) {
+        reads.add(new Read(aid, iid, targetCharacteristic, timeout));
+      } else {
+        if (!registry.getCharacteristics(aid).isEmpty()) {
           logger.warn(
               "Accessory " + aid + " does not have characteristic " + iid + ". Request: " + uri);
+        } else {
+          logger.warn(
+              "Accessory " + aid + " has no characteristics or does not exist. Request: " + uri);
         }
-      } else {
-        logger.warn(
-            "Accessory " + aid + " has no characteristics or does not exist. Request: " + uri);
+        reads.add(new Read(aid, iid, HapStatus.RESOURCE_DOES_NOT_EXIST));
+      }
+    }
+
+    CompletableFuture<?>[] statuses = new CompletableFuture<?>[reads.size()];
+    for (int i = 0; i < statuses.length; i++) {
+      statuses[i] = reads.get(i).status;
+    }
+    return CompletableFuture.allOf(statuses).thenApply(v -> readResponse(reads));
+  }
+
+  private HttpResponse readResponse(List<Read> reads) {
+    boolean multiStatus = false;
+    for (Read read : reads) {
+      multiStatus |= read.status.join() != HapStatus.SUCCESS;
+    }
+    HapJsonWriter writer = new HapJsonWriter(64 * reads.size());
+    writer.beginObject().name("characteristics").beginArray();
+    for (Read read : reads) {
+      HapStatus status = read.status.join();
+      writer.beginObject();
+      writer.name("aid").value(read.aid);
+      writer.name("iid").value(read.iid);
+      if (status == HapStatus.SUCCESS) {
+        writer.name("value");
+        read.value.writeTo(writer);
       }
+      if (multiStatus) {
+        writer.name("status").value(status.getCode());
+      }
+      writer.endObject();
     }
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        JsonWriter jsonWriter = Json.createWriter(baos)) {
-      jsonWriter.write(
-          Json.createObjectBuilder().add("characteristics", characteristics.build()).build());
-      return new HapJsonResponse(baos.toByteArray());
+    writer.endArray().endObject();
+    return multiStatus
+        ? new HapJsonMultiStatusResponse(writer.toByteBuffer())
+        : new HapJsonResponse(writer.toByteBuffer());
+  }
+
+  /** A pending read of one characteristic; the status completes with whatever happens first. */
+  private class Read {
+    final long aid;
+    final int iid;
+    final CapturedValue value = new CapturedValue();
+    final CompletableFuture<HapStatus> status = new CompletableFuture<>();
+
+    Read(long aid, int iid, Characteristic characteristic, long timeout) {
+      this.aid = aid;
+      this.iid = iid;
+      value
+          .read(characteristic)
+          .whenComplete(
+              (v, t) -> {
+                if (t != null) {
+                  logger.warn("Could not read characteristic {}.{}", aid, iid, t);
+                  status.complete(HapStatus.SERVICE_COMMUNICATION_FAILURE);
+                } else {
+                  status.complete(HapStatus.SUCCESS);
+                }
+              });
+      HomekitScheduler.completeOnTimeout(
+          status, HapStatus.OPERATION_TIMED_OUT, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    Read(long aid, int iid, HapStatus status) {
+      this.aid = aid;
+      this.iid = iid;
+      this.status.complete(status);
     }
   }
 
-  public HttpResponse put(HttpRequest request, HomekitClientConnection connection)
-      throws Exception {
+  public CompletableFuture<HttpResponse> put(
+      HttpRequest request, HomekitClientConnection connection) throws Exception {
+    List<Write> writes = new ArrayList<>();
+    // last value write per accessory, so writes to one accessory keep their order
+    Map<Long, CompletableFuture<?>> accessoryWrites = new HashMap<>();
+    // the batch is global, so it only covers dispatching the writes; a setter that hangs on the
+    // write executor must not hold back the events of all connections
     subscriptions.batchUpdate();
-    try {
-      try (ByteArrayInputStream bais = new ByteArrayInputStream(request.getBody())) {
-        JsonArray jsonCharacteristics =
-            Json.createReader(bais).readObject().getJsonArray("characteristics");
-        for (JsonValue value : jsonCharacteristics) {
-          JsonObject jsonCharacteristic = (JsonObject) value;
-          long aid = jsonCharacteristic.getJsonNumber("aid").longValue();
-          int iid = jsonCharacteristic.getInt("iid");
-          Map<Integer, Characteristic> accessory = registry.getCharacteristics(aid);
-          if (accessory.isEmpty()) {
-            logger.warn("Accessory {} has no characteristics or does not exist.", aid);
-            return new HapJsonNoContentResponse();
-          }
-          Characteristic characteristic = accessory.get(iid);
-          if (characteristic == null) {
-            logger.warn("Accessory {} does not have characteristic {}.", aid, iid);
-            return new HapJsonNoContentResponse();
-          }
-
-          if (jsonCharacteristic.containsKey("value")) {
-            characteristic.setValue(jsonCharacteristic.get("value"));
-          }
-          if (jsonCharacteristic.containsKey("ev")
-              && characteristic instanceof EventableCharacteristic) {
-            if (jsonCharacteristic.getBoolean("ev")) {
-              subscriptions.addSubscription(
-                  aid, iid, (EventableCharacteristic) characteristic, connection);
-            } else {
-              subscriptions.removeSubscription(
-                  (EventableCharacteristic) characteristic, connection);
-            }
-          }
+    try (JsonParser parser = Json.createParser(new ByteArrayInputStream(request.getBody()))) {
+      expect(parser, Event.START_OBJECT);
+      while (parser.next() == Event.KEY_NAME) {
+        if (!"characteristics".equals(parser.getString())) {
+          skipValue(parser);
+          continue;
+        }
+        expect(parser, Event.START_ARRAY);
+        // each write is dispatched as soon as its object has been parsed
+        while (parser.next() == Event.START_OBJECT) {
+          writes.add(write(parser, connection, accessoryWrites));
         }
       }
     } finally {
       subscriptions.completeUpdateBatch();
     }
-    return new HapJsonNoContentResponse();
+
+    CompletableFuture<?>[] statuses = new CompletableFuture<?>[writes.size()];
+    for (int i = 0; i < statuses.length; i++) {
+      statuses[i] = writes.get(i).status;
+    }
+    return CompletableFuture.allOf(statuses).thenApply(v -> writeResponse(writes));
+  }
+
+  private HttpResponse writeResponse(List<Write> writes) {
+    if (writes.stream().allMatch(write -> write.status.join() == HapStatus.SUCCESS)) {
+      return new HapJsonNoContentResponse();
+    }
+    HapJsonWriter writer = new HapJsonWriter(48 * writes.size());
+    writer.beginObject().name("characteristics").beginArray();
+    for (Write write : writes) {
+      writer.beginObject();
+      writer.name("aid").value(write.aid);
+      writer.name("iid").value(write.iid);
+      writer.name("status").value(write.status.join().getCode());
+      writer.endObject();
+    }
+    writer.endArray().endObject();
+    return new HapJsonMultiStatusResponse(writer.toByteBuffer());
+  }
+
+  /**
+   * Parses the remainder of one {"aid":..,"iid":..,"value":..,"ev":..} object and applies it.
+   *
+   * @return the write, with its status completing once it has been applied.
+   */
+  private Write write(
+      JsonParser parser,
+      HomekitClientConnection connection,
+      Map<Long, CompletableFuture<?>> accessoryWrites) {
+    JsonNumber aidValue = null;
+    JsonNumber iidValue = null;
+    JsonValue value = null;
+    JsonValue ev = null;
+    while (parser.next() == Event.KEY_NAME) {
+      switch (parser.getString()) {
+        case "aid":
+          aidValue = (JsonNumber) readValue(parser);
+          break;
+        case "iid":
+          iidValue = (JsonNumber) readValue(parser);
+          break;
+        case "value":
+          value = readValue(parser);
+          break;
+        case "ev":
+          ev = readValue(parser);
+          break;
+        default:
+          skipValue(parser);
+      }
+    }
+    if (aidValue == null || iidValue == null) {
+      throw new JsonException("Characteristic write without aid or iid");
+    }
+    long aid = aidValue.longValue();
+    int iid = iidValue.intValue();
+
+    Characteristic characteristic = registry.getCharacteristic(aid, iid);
+    if (characteristic == null) {
+      if (registry.getCharacteristics(aid).isEmpty()) {
+        logger.warn("Accessory {} has no characteristics or does not exist.", aid);
+      } else {
+        logger.warn("Accessory {} does not have characteristic {}.", aid, iid);
+      }
+      return new Write(aid, iid, HapStatus.RESOURCE_DOES_NOT_EXIST);
+    }
+
+    HapStatus eventStatus = HapStatus.SUCCESS;
+    if (ev != null) {
+      if (!(characteristic instanceof EventableCharacteristic)) {
+        logger.warn("Characteristic {}.{} does not support events.", aid, iid);
+        eventStatus = HapStatus.NOTIFICATION_NOT_SUPPORTED;
+      } else if (ev == JsonValue.TRUE) {
+        subscriptions.addSubscription(
+            aid, iid, (EventableCharacteristic) characteristic, connection);
+      } else {
+        subscriptions.removeSubscription((EventableCharacteristic) characteristic, connection);
+      }
+    }
+    if (value == null) {
+      return new Write(aid, iid, eventStatus);
+    }
+
+    Write write = new Write(aid, iid);
+    HapStatus status = eventStatus;
+    updateValue(characteristic, value, aid, iid, accessoryWrites)
+        .thenAccept(s -> write.status.complete(status != HapStatus.SUCCESS ? status : s));
+    return write;
+  }
+
+  /**
+   * Sets the value right away, or, if the registry has a write executor, on that executor after the
+   * previous write to the same accessory has finished.
+   */
+  private CompletableFuture<HapStatus> updateValue(
+      Characteristic characteristic,
+      JsonValue value,
+      long aid,
+      int iid,
+      Map<Long, CompletableFuture<?>> accessoryWrites) {
+    Executor executor = registry.getWriteExecutor();
+    if (executor == null) {
+      return CompletableFuture.completedFuture(updateValue(characteristic, value, aid, iid));
+    }
+
+    CompletableFuture<?> previous =
+        accessoryWrites.getOrDefault(aid, CompletableFuture.completedFuture(null));
+    CompletableFuture<HapStatus> update =
+        previous
+            .exceptionally(t -> null)
+            .thenApplyAsync(v -> updateValue(characteristic, value, aid, iid), executor);
+    accessoryWrites.put(aid, update);
+
+    // a separate future, the next write to this accessory has to wait for the setter itself
+    CompletableFuture<HapStatus> status = new CompletableFuture<>();
+    update.whenComplete(
+        (s, t) -> status.complete(t == null ? s : HapStatus.SERVICE_COMMUNICATION_FAILURE));
+    return HomekitScheduler.completeOnTimeout(
+        status,
+        HapStatus.OPERATION_TIMED_OUT,
+        registry.getWriteTimeout().toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  private HapStatus updateValue(Characteristic characteristic, JsonValue value, long aid, int iid) {
+    if (!isValidValue(characteristic, value)) {
+      logger.warn("Invalid value {} for characteristic {}.{}", value, aid, iid);
+      return HapStatus.INVALID_VALUE;
+    }
+    try {
+      characteristic.updateValue(value);
+      return HapStatus.SUCCESS;
+    } catch (IllegalArgumentException e) {
+      logger.warn("Invalid value {} for characteristic {}.{}", value, aid, iid, e);
+      return HapStatus.INVALID_VALUE;
+    } catch (Exception e) {
+      logger.warn("Could not set value {} for characteristic {}.{}", value, aid, iid, e);
+      return HapStatus.SERVICE_COMMUNICATION_FAILURE;
+    }
+  }
+
+  /**
+   * Enum characteristics ignore codes that are not among their valid values, so those are rejected
+   * here, where they can be reported to the client.
+   */
+  private static boolean isValidValue(Characteristic characteristic, JsonValue value) {
+    if (!(characteristic instanceof EnumCharacteristic) || !(value instanceof JsonNumber)) {
+      return true;
+    }
+    CharacteristicEnum[] validValues = ((EnumCharacteristic<?>) characteristic).getValidValues();
+    if (validValues == null) {
+      return true;
+    }
+    int code = ((JsonNumber) value).intValue();
+    for (CharacteristicEnum valid : validValues) {
+      if (valid.getCode() == code) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class Write {
+    final long aid;
+    final int iid;
+    final CompletableFuture<HapStatus> status = new CompletableFuture<>();
+
+    Write(long aid, int iid) {
+      this.aid = aid;
+      this.iid = iid;
+    }
+
+    Write(long aid, int iid, HapStatus status) {
+      this(aid, iid);
+      this.status.complete(status);
+    }
+  }
+
+  private static void expect(JsonParser parser, Event expected) {
+    Event event = parser.next();
+    if (event != expected) {
+      throw new JsonParsingException(
+          "Expected " + expected + " but found " + event, parser.getLocation());
+    }
+  }
+
+  private static JsonValue readValue(JsonParser parser) {
+    parser.next();
+    return parser.getValue();
+  }
+
+  private static void skipValue(JsonParser parser) {
+    Event event = parser.next();
+    if (event == Event.START_OBJECT) {
+      parser.skipObject();
+    } else if (event == Event.START_ARRAY) {
+      parser.skipArray();
+    }
   }
 }
@@ -3,55 +3,37 @@ package io.github.hapjava.server.impl.json;
 import io.github.hapjava.characteristics.EventableCharacteristic;
 import io.github.hapjava.server.impl.connections.PendingNotification;
 import io.github.hapjava.server.impl.http.HttpResponse;
-import java.io.ByteArrayOutputStream;
+import java.util.Collections;
 import java.util.List;
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-import javax.json.JsonWriter;
 
 public class EventController {
 
   public HttpResponse getMessage(long accessoryId, long iid, EventableCharacteristic changed)
       throws Exception {
-    JsonArrayBuilder characteristics = Json.createArrayBuilder();
-
-    JsonObjectBuilder characteristicBuilder = Json.createObjectBuilder();
-    characteristicBuilder.add("aid", accessoryId);
-    characteristicBuilder.add("iid", iid);
-    changed.supplyValue(characteristicBuilder);
-    characteristics.add(characteristicBuilder.build());
-
-    JsonObject data = Json.createObjectBuilder().add("characteristics", characteristics).build();
-
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        JsonWriter jsonWriter = Json.createWriter(baos)) {
-      jsonWriter.write(data);
-      byte[] dataBytes = baos.toByteArray();
-
-      return new EventResponse(dataBytes);
-    }
+    return getMessage(
+        Collections.singletonList(new PendingNotification(accessoryId, (int) iid, changed)));
   }
 
   public HttpResponse getMessage(List<PendingNotification> notifications) throws Exception {
-    JsonArrayBuilder characteristics = Json.createArrayBuilder();
-
+    HapJsonWriter writer = new HapJsonWriter();
+    writer.beginObject().name("characteristics").beginArray();
     for (PendingNotification notification : notifications) {
-      JsonObjectBuilder characteristicBuilder = Json.createObjectBuilder();
-      characteristicBuilder.add("aid", notification.aid);
-      characteristicBuilder.add("iid", notification.iid);
-      notification.characteristic.supplyValue(characteristicBuilder);
-      characteristics.add(characteristicBuilder.build());
+      writeCharacteristic(writer, notification);
     }
+    writer.endArray().endObject();
+    return new EventResponse(writer.toByteBuffer());
+  }
 
-    JsonObject data = Json.createObjectBuilder().add("characteristics", characteristics).build();
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        JsonWriter jsonWriter = Json.createWriter(baos)) {
-      jsonWriter.write(data);
-      byte[] dataBytes = baos.toByteArray();
-
-      return new EventResponse(dataBytes);
+  private void writeCharacteristic(HapJsonWriter writer, PendingNotification notification) {
+    EventableCharacteristic characteristic = notification.characteristic;
+    writer.beginObject();
+    writer.name("aid").value(notification.aid);
+    writer.name("iid").value(notification.iid);
+    writer.name("value");
+    // a value reported with the change saves calling the getter
+    if (!notification.hasValue || !characteristic.supplyChangedValue(notification.value, writer)) {
+      characteristic.supplyValue(writer);
     }
+    writer.endObject();
   }
 }
@@ -1,11 +1,17 @@
 package io.github.hapjava.server.impl.json;
 
+import java.nio.ByteBuffer;
+
 public class EventResponse extends HapJsonResponse {
 
   public EventResponse(byte[] body) {
     super(body);
   }
 
+  public EventResponse(ByteBuffer body) {
+    super(body);
+  }
+
   @Override
   public HttpVersion getVersion() {
     return HttpVersion.EVENT_1_0;
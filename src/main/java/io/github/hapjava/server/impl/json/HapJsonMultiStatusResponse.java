@@ -0,0 +1,16 @@
+package io.github.hapjava.server.impl.json;
+
+import java.nio.ByteBuffer;
+
+/** A HAP JSON body in which some characteristics report a non-zero status. */
+class HapJsonMultiStatusResponse extends HapJsonResponse {
+
+  public HapJsonMultiStatusResponse(ByteBuffer body) {
+    super(body);
+  }
+
+  @Override
+  public int getStatusCode() {
+    return 207;
+  }
+}
@@ -1,6 +1,7 @@
 package io.github.hapjava.server.impl.json;
 
 import io.github.hapjava.server.impl.responses.OkResponse;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -21,6 +22,10 @@ class HapJsonResponse extends OkResponse {
     super(body);
   }
 
+  public HapJsonResponse(ByteBuffer body) {
+    super(body);
+  }
+
   @Override
   public Map<String, String> getHeaders() {
     return headers;
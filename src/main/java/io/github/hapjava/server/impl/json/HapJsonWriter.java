@@ -0,0 +1,259 @@
+package io.github.hapjava.server.impl.json;
+
+import io.github.hapjava.characteristics.CharacteristicValueSink;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.json.JsonValue;
+
+/**
+ * Minimal streaming JSON encoder for HAP responses. It writes UTF-8 straight into a growable byte
+ * array, so serializing a large read allocates a handful of arrays instead of a JSON object tree.
+ * The caller is responsible for emitting a well formed sequence of calls; commas are inserted
+ * automatically.
+ */
+class HapJsonWriter implements CharacteristicValueSink {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+  private static final byte[] NULL = "null".getBytes();
+  private static final byte[] TRUE = "true".getBytes();
+  private static final byte[] FALSE = "false".getBytes();
+
+  private byte[] buf;
+  private int count = 0;
+  private boolean first = true;
+
+  HapJsonWriter() {
+    this(256);
+  }
+
+  HapJsonWriter(int initialCapacity) {
+    buf = new byte[initialCapacity];
+  }
+
+  HapJsonWriter beginObject() {
+    separator();
+    write('{');
+    first = true;
+    return this;
+  }
+
+  HapJsonWriter endObject() {
+    write('}');
+    first = false;
+    return this;
+  }
+
+  HapJsonWriter beginArray() {
+    separator();
+    write('[');
+    first = true;
+    return this;
+  }
+
+  HapJsonWriter endArray() {
+    write(']');
+    first = false;
+    return this;
+  }
+
+  HapJsonWriter name(String name) {
+    separator();
+    string(name);
+    write(':');
+    first = true;
+    return this;
+  }
+
+  @Override
+  public void nullValue() {
+    separator();
+    write(NULL);
+  }
+
+  @Override
+  public void value(boolean value) {
+    separator();
+    write(value ? TRUE : FALSE);
+  }
+
+  @Override
+  public void value(int value) {
+    value((long) value);
+  }
+
+  @Override
+  public void value(long value) {
+    separator();
+    if (value == Long.MIN_VALUE) {
+      ascii(Long.toString(value));
+      return;
+    }
+    if (value < 0) {
+      write('-');
+      value = -value;
+    }
+    ensureCapacity(19);
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    for (int i = count + digits - 1; i >= count; i--) {
+      buf[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    count += digits;
+  }
+
+  @Override
+  public void value(double value) {
+    separator();
+    // same representation javax.json uses for doubles
+    ascii(BigDecimal.valueOf(value).toString());
+  }
+
+  @Override
+  public void value(String value) {
+    separator();
+    string(value);
+  }
+
+  @Override
+  public void value(JsonValue value) {
+    separator();
+    string(value.toString(), false);
+  }
+
+  /**
+   * Writes pre-serialized JSON as the next value.
+   *
+   * @param json the UTF-8 encoded JSON.
+   */
+  HapJsonWriter rawValue(byte[] json) {
+    separator();
+    write(json);
+    return this;
+  }
+
+  /**
+   * Appends pre-serialized JSON that continues the value written last, without a separator.
+   *
+   * @param json the UTF-8 encoded JSON.
+   */
+  HapJsonWriter raw(byte[] json) {
+    write(json);
+    first = false;
+    return this;
+  }
+
+  /** @return the encoded document, sharing this writer's array. */
+  ByteBuffer toByteBuffer() {
+    return ByteBuffer.wrap(buf, 0, count);
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(buf, count);
+  }
+
+  private void separator() {
+    if (!first) {
+      write(',');
+    }
+    first = false;
+  }
+
+  private void string(String s) {
+    write('"');
+    string(s, true);
+    write('"');
+  }
+
+  private void string(String s, boolean escape) {
+    int length = s.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (escape && (c < 0x20 || c == '"' || c == '\\')) {
+          escape(c);
+        } else {
+          write(c);
+        }
+      } else if (c < 0x800) {
+        write(0xC0 | (c >> 6));
+        write(0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        write(0xF0 | (cp >> 18));
+        write(0x80 | ((cp >> 12) & 0x3F));
+        write(0x80 | ((cp >> 6) & 0x3F));
+        write(0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate, encoded as '?' like String.getBytes(UTF_8) does
+        write('?');
+      } else {
+        write(0xE0 | (c >> 12));
+        write(0x80 | ((c >> 6) & 0x3F));
+        write(0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void escape(char c) {
+    write('\\');
+    switch (c) {
+      case '"':
+      case '\\':
+        write(c);
+        break;
+      case '\b':
+        write('b');
+        break;
+      case '\f':
+        write('f');
+        break;
+      case '\n':
+        write('n');
+        break;
+      case '\r':
+        write('r');
+        break;
+      case '\t':
+        write('t');
+        break;
+      default:
+        write('u');
+        write('0');
+        write('0');
+        write(HEX[c >> 4]);
+        write(HEX[c & 0xF]);
+    }
+  }
+
+  private void ascii(String s) {
+    int length = s.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      buf[count++] = (byte) s.charAt(i);
+    }
+  }
+
+  private void write(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buf, count, bytes.length);
+    count += bytes.length;
+  }
+
+  private void write(int b) {
+    ensureCapacity(1);
+    buf[count++] = (byte) b;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (count + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+    }
+  }
+}
@@ -1,8 +1,7 @@
 package io.github.hapjava.server.impl.pairing;
 
 import io.github.hapjava.server.HomekitAuthInfo;
-import io.github.hapjava.server.impl.crypto.ChachaDecoder;
-import io.github.hapjava.server.impl.crypto.ChachaEncoder;
+import io.github.hapjava.server.impl.crypto.AeadProvider;
 import io.github.hapjava.server.impl.crypto.EdsaSigner;
 import io.github.hapjava.server.impl.crypto.EdsaVerifier;
 import io.github.hapjava.server.impl.http.HttpResponse;
@@ -44,8 +43,13 @@ class ExchangeHandler {
   }
 
   private HttpResponse decrypt(ExchangeRequest req, byte[] key) throws Exception {
-    ChachaDecoder chacha = new ChachaDecoder(key, "PS-Msg05".getBytes(StandardCharsets.UTF_8));
-    byte[] plaintext = chacha.decodeCiphertext(req.getAuthTagData(), req.getMessageData());
+    byte[] plaintext =
+        AeadProvider.getDefault()
+            .decrypt(
+                key,
+                "PS-Msg05".getBytes(StandardCharsets.UTF_8),
+                req.getAuthTagData(),
+                req.getMessageData());
 
     DecodeResult d = TypeLengthValueUtils.decode(plaintext);
     byte[] username = d.getBytes(MessageType.USERNAME);
@@ -99,9 +103,9 @@ class ExchangeHandler {
     encoder.add(MessageType.SIGNATURE, proof);
     byte[] plaintext = encoder.toByteArray();
 
-    ChachaEncoder chacha =
-        new ChachaEncoder(hkdf_enc_key, "PS-Msg06".getBytes(StandardCharsets.UTF_8));
-    byte[] ciphertext = chacha.encodeCiphertext(plaintext);
+    byte[] ciphertext =
+        AeadProvider.getDefault()
+            .encrypt(hkdf_enc_key, "PS-Msg06".getBytes(StandardCharsets.UTF_8), plaintext);
 
     encoder = TypeLengthValueUtils.getEncoder();
     encoder.add(MessageType.STATE, (short) 6);
@@ -3,8 +3,7 @@ package io.github.hapjava.server.impl.pairing;
 import djb.Curve25519;
 import io.github.hapjava.server.HomekitAuthInfo;
 import io.github.hapjava.server.impl.HomekitRegistry;
-import io.github.hapjava.server.impl.crypto.ChachaDecoder;
-import io.github.hapjava.server.impl.crypto.ChachaEncoder;
+import io.github.hapjava.server.impl.crypto.AeadProvider;
 import io.github.hapjava.server.impl.crypto.EdsaSigner;
 import io.github.hapjava.server.impl.crypto.EdsaVerifier;
 import io.github.hapjava.server.impl.http.HttpRequest;
@@ -86,8 +85,9 @@ public class PairVerifyManager {
     encoder.add(MessageType.SIGNATURE, proof);
     byte[] plaintext = encoder.toByteArray();
 
-    ChachaEncoder chacha = new ChachaEncoder(hkdfKey, "PV-Msg02".getBytes(StandardCharsets.UTF_8));
-    byte[] ciphertext = chacha.encodeCiphertext(plaintext);
+    byte[] ciphertext =
+        AeadProvider.getDefault()
+            .encrypt(hkdfKey, "PV-Msg02".getBytes(StandardCharsets.UTF_8), plaintext);
 
     encoder = TypeLengthValueUtils.getEncoder();
     encoder.add(MessageType.STATE, (short) 2);
@@ -97,8 +97,13 @@ public class PairVerifyManager {
   }
 
   private HttpResponse handleVerifyFinishRequest(VerifyFinishRequest request) throws Exception {
-    ChachaDecoder chacha = new ChachaDecoder(hkdfKey, "PV-Msg03".getBytes(StandardCharsets.UTF_8));
-    byte[] plaintext = chacha.decodeCiphertext(request.getAuthTagData(), request.getMessageData());
+    byte[] plaintext =
+        AeadProvider.getDefault()
+            .decrypt(
+                hkdfKey,
+                "PV-Msg03".getBytes(StandardCharsets.UTF_8),
+                request.getAuthTagData(),
+                request.getMessageData());
 
     DecodeResult d = TypeLengthValueUtils.decode(plaintext);
     byte[] clientUsername = d.getBytes(MessageType.USERNAME);
@@ -11,6 +11,10 @@ public class OkResponse implements HttpResponse {
     this.body = ByteBuffer.wrap(body);
   }
 
+  public OkResponse(ByteBuffer body) {
+    this.body = body;
+  }
+
   @Override
   public ByteBuffer getBody() {
     return body;
@@ -0,0 +1,60 @@
+package io.github.hapjava.server.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import io.github.hapjava.accessories.SwitchAccessory;
+import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.server.HomekitIidStore;
+import io.github.hapjava.server.impl.connections.SubscriptionManager;
+import io.github.hapjava.services.Service;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+public class HomekitRegistryTest {
+
+  @Test
+  public void testSparseIidsAreLookedUp() {
+    HomekitRegistry registry = new HomekitRegistry("test", mock(SubscriptionManager.class));
+    // a single huge iid, e.g. from a corrupted store, must not size the lookup tables
+    registry.setIidStore(
+        new HomekitIidStore() {
+          @Override
+          public Map<String, Integer> load(long aid) {
+            return new HashMap<>(Collections.singletonMap("retired", Integer.MAX_VALUE - 100));
+          }
+
+          @Override
+          public void save(long aid, Map<String, Integer> iids) {}
+        });
+    registry.add(switchAccessory(2));
+    registry.reset();
+
+    Map<Integer, Characteristic> characteristics = registry.getCharacteristics(2);
+    assertThat(characteristics).isNotEmpty();
+    for (Map.Entry<Integer, Characteristic> entry : characteristics.entrySet()) {
+      assertThat(entry.getKey()).isGreaterThan(Integer.MAX_VALUE - 100);
+      assertThat(registry.getCharacteristic(2, entry.getKey())).isSameAs(entry.getValue());
+    }
+    for (Map.Entry<Integer, Service> entry : registry.getServices(2).entrySet()) {
+      assertThat(registry.getService(2, entry.getKey())).isSameAs(entry.getValue());
+    }
+    assertThat(registry.getCharacteristic(2, 1)).isNull();
+    assertThat(registry.getCharacteristic(2, -1)).isNull();
+  }
+
+  private static SwitchAccessory switchAccessory(long id) {
+    SwitchAccessory accessory =
+        mock(SwitchAccessory.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+    when(accessory.getId()).thenReturn(id);
+    CompletableFuture<String> name = CompletableFuture.completedFuture("Switch " + id);
+    when(accessory.getName()).thenReturn(name);
+    return accessory;
+  }
+}
@@ -1,18 +1,23 @@
 package io.github.hapjava.server.impl;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.server.HomekitAccessoryCategories;
 import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.HomekitConfigurationStore;
 import io.github.hapjava.server.HomekitWebHandler;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
@@ -107,6 +112,57 @@ public class HomekitRootTest {
     verify(webHandler, never()).resetConnections();
   }
 
+  @Test
+  public void testAddAccessoryOnlyBuildsThatAccessory() throws Exception {
+    root.addAccessory(accessory);
+    root.start();
+    HomekitAccessory other = mock(HomekitAccessory.class);
+    when(other.getId()).thenReturn(3l);
+
+    root.addAccessory(other);
+    verify(accessory, times(1)).getServices();
+    verify(other).getServices();
+    assertFalse(root.getRegistry().getCharacteristics(3l).isEmpty());
+    // iid 1 is the accessory information service, followed by its characteristics
+    assertNull(root.getRegistry().getCharacteristic(3, 1));
+    assertNotNull(root.getRegistry().getCharacteristic(3, 2));
+
+    root.removeAccessory(other);
+    assertTrue(root.getRegistry().getCharacteristics(3l).isEmpty());
+    assertNull(root.getRegistry().getCharacteristic(3, 2));
+    verify(accessory, times(1)).getServices();
+  }
+
+  @Test
+  public void testConfigurationIndexOnlyChangesWithMetadata() throws Exception {
+    HomekitConfigurationStore store = mock(HomekitConfigurationStore.class);
+    when(store.getConfigurationIndex()).thenReturn(4);
+    root.setConfigurationStore(store);
+    root.addAccessory(describedAccessory(2));
+    root.start();
+    verify(store).save(eq(4), any());
+
+    // replaced by an accessory with the same metadata
+    root.addAccessory(describedAccessory(2));
+    verify(store, times(1)).save(anyInt(), any());
+    verify(advertiser, never()).setConfigurationIndex(anyInt());
+
+    root.addAccessory(describedAccessory(3));
+    verify(store).save(eq(5), any());
+    verify(advertiser).setConfigurationIndex(5);
+  }
+
+  private static HomekitAccessory describedAccessory(long id) {
+    HomekitAccessory accessory = mock(HomekitAccessory.class);
+    when(accessory.getId()).thenReturn(id);
+    when(accessory.getName()).thenReturn(CompletableFuture.completedFuture("Accessory " + id));
+    when(accessory.getManufacturer()).thenReturn(CompletableFuture.completedFuture("Acme"));
+    when(accessory.getModel()).thenReturn(CompletableFuture.completedFuture("Model"));
+    when(accessory.getSerialNumber()).thenReturn(CompletableFuture.completedFuture("1"));
+    when(accessory.getFirmwareRevision()).thenReturn(CompletableFuture.completedFuture("1.0"));
+    return accessory;
+  }
+
   @Test
   public void testAddIndexOneAccessory() throws Exception {
     assertThrows(
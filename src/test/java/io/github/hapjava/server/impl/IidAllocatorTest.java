@@ -0,0 +1,71 @@
+package io.github.hapjava.server.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.hapjava.server.HomekitIidStore;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class IidAllocatorTest {
+
+  private final IidAllocator allocator = new IidAllocator();
+
+  @Test
+  public void testNewAccessoryIsNumberedInOrder() {
+    IidAllocator.Assignment iids = allocator.assign(2);
+    assertThat(iids.service("info")).isEqualTo(1);
+    assertThat(iids.characteristic("name")).isEqualTo(2);
+    assertThat(iids.service("light")).isEqualTo(3);
+    assertThat(iids.characteristic("on")).isEqualTo(4);
+    assertThat(iids.service("light")).isEqualTo(5);
+    assertThat(iids.characteristic("on")).isEqualTo(6);
+  }
+
+  @Test
+  public void testAddedCharacteristicDoesNotShiftOthers() {
+    IidAllocator.Assignment iids = allocator.assign(2);
+    iids.service("info");
+    iids.characteristic("name");
+    iids.service("light");
+    iids.characteristic("on");
+
+    iids = allocator.assign(2);
+    assertThat(iids.service("info")).isEqualTo(1);
+    assertThat(iids.characteristic("name")).isEqualTo(2);
+    assertThat(iids.characteristic("firmware")).isEqualTo(5);
+    assertThat(iids.service("light")).isEqualTo(3);
+    assertThat(iids.characteristic("brightness")).isEqualTo(6);
+    assertThat(iids.characteristic("on")).isEqualTo(4);
+  }
+
+  @Test
+  public void testIidsAreRestoredFromStore() {
+    Map<Long, Map<String, Integer>> saved = new HashMap<>();
+    HomekitIidStore store =
+        new HomekitIidStore() {
+          @Override
+          public Map<String, Integer> load(long aid) {
+            return saved.getOrDefault(aid, new HashMap<>());
+          }
+
+          @Override
+          public void save(long aid, Map<String, Integer> iids) {
+            saved.put(aid, iids);
+          }
+        };
+    allocator.setStore(store);
+    IidAllocator.Assignment iids = allocator.assign(2);
+    iids.service("info");
+    iids.service("light");
+    iids.characteristic("on");
+    iids.complete();
+
+    IidAllocator restarted = new IidAllocator();
+    restarted.setStore(store);
+    iids = restarted.assign(2);
+    assertThat(iids.service("light")).isEqualTo(2);
+    assertThat(iids.characteristic("on")).isEqualTo(3);
+    assertThat(iids.service("info")).isEqualTo(1);
+  }
+}
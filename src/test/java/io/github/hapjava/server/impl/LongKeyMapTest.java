@@ -0,0 +1,32 @@
+package io.github.hapjava.server.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class LongKeyMapTest {
+
+  @Test
+  public void testFindsAllKeys() {
+    Map<Long, String> map = new HashMap<>();
+    for (long key = 1; key <= 400; key++) {
+      map.put(key * 7, "accessory " + key);
+    }
+    map.put(Long.MIN_VALUE, "min");
+    map.put(Long.MAX_VALUE, "max");
+    LongKeyMap<String> longKeyMap = new LongKeyMap<>(map);
+
+    for (Map.Entry<Long, String> entry : map.entrySet()) {
+      assertThat(longKeyMap.get(entry.getKey())).isEqualTo(entry.getValue());
+    }
+    assertThat(longKeyMap.get(8)).isNull();
+    assertThat(longKeyMap.get(0)).isNull();
+  }
+
+  @Test
+  public void testEmpty() {
+    assertThat(new LongKeyMap<String>(new HashMap<>()).get(1)).isNull();
+  }
+}
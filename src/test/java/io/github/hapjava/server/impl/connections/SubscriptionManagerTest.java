@@ -0,0 +1,344 @@
+package io.github.hapjava.server.impl.connections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.hapjava.characteristics.HomekitCharacteristicChangeCallback;
+import io.github.hapjava.characteristics.impl.common.OnCharacteristic;
+import io.github.hapjava.characteristics.impl.thermostat.CurrentTemperatureCharacteristic;
+import io.github.hapjava.server.impl.HomekitScheduler;
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import org.junit.jupiter.api.Test;
+
+public class SubscriptionManagerTest {
+
+  private final SubscriptionManager manager = new SubscriptionManager();
+  private final RecordingConnection connection = new RecordingConnection();
+
+  @Test
+  public void testPublishDoesNotWaitForSubscriptionChanges() throws Exception {
+    AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+    OnCharacteristic characteristic = characteristic(callback);
+    manager.addSubscription(1, 9, characteristic, connection);
+
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread holder =
+        new Thread(
+            () -> {
+              synchronized (manager) {
+                locked.countDown();
+                try {
+                  release.await();
+                } catch (InterruptedException ignored) {
+                }
+              }
+            });
+    holder.start();
+    try {
+      assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+      CompletableFuture<Void> published = CompletableFuture.runAsync(callback.get()::changed);
+      published.get(5, TimeUnit.SECONDS);
+      assertThat(connection.notificationCount()).isEqualTo(1);
+    } finally {
+      release.countDown();
+      holder.join();
+    }
+  }
+
+  @Test
+  public void testBatchedChangesFromManyThreadsAreFlushedOnce() throws Exception {
+    List<AtomicReference<HomekitCharacteristicChangeCallback>> callbacks = new ArrayList<>();
+    for (int iid = 0; iid < 8; iid++) {
+      AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+      manager.addSubscription(1, iid, characteristic(callback), connection);
+      callbacks.add(callback);
+    }
+
+    manager.batchUpdate();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (AtomicReference<HomekitCharacteristicChangeCallback> callback : callbacks) {
+        futures.add(executor.submit(() -> callback.get().changed()));
+      }
+      for (Future<?> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(connection.messages).isEmpty();
+
+    manager.completeUpdateBatch();
+    assertThat(connection.messages).hasSize(1);
+    assertThat(connection.notificationCount()).isEqualTo(8);
+  }
+
+  @Test
+  public void testChangesWithinTheWindowAreCoalesced() throws Exception {
+    AtomicInteger reads = new AtomicInteger();
+    AtomicReference<HomekitCharacteristicChangeCallback> flapping = new AtomicReference<>();
+    AtomicReference<HomekitCharacteristicChangeCallback> other = new AtomicReference<>();
+    manager.addSubscription(
+        1,
+        9,
+        new OnCharacteristic(
+            () -> CompletableFuture.completedFuture(reads.incrementAndGet() % 2 == 0),
+            v -> {},
+            flapping::set,
+            () -> {}),
+        connection);
+    manager.addSubscription(2, 9, characteristic(other), connection);
+    manager.setCoalescingWindow(Duration.ofMillis(50));
+
+    for (int i = 0; i < 5; i++) {
+      flapping.get().changed();
+    }
+    other.get().changed();
+    assertThat(connection.messages).isEmpty();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (connection.notificationCount() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(connection.messages).hasSize(1);
+    assertThat(connection.notificationCount()).isEqualTo(2);
+    assertThat(reads).hasValue(1);
+  }
+
+  @Test
+  public void testSlowGetterDoesNotHoldUpTheScheduler() throws Exception {
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+    manager.addSubscription(
+        1,
+        9,
+        new OnCharacteristic(
+            () -> {
+              reading.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException ignored) {
+              }
+              return CompletableFuture.completedFuture(true);
+            },
+            v -> {},
+            callback::set,
+            () -> {}),
+        connection);
+    manager.setCoalescingWindow(Duration.ofMillis(1));
+    try {
+      callback.get().changed();
+      assertThat(reading.await(5, TimeUnit.SECONDS)).isTrue();
+
+      CountDownLatch timer = new CountDownLatch(1);
+      HomekitScheduler.schedule(timer::countDown, 0, TimeUnit.MILLISECONDS);
+      assertThat(timer.await(5, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testFlushPendingDoesNotWaitForGetter() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+    manager.addSubscription(
+        1,
+        9,
+        new OnCharacteristic(
+            () -> {
+              try {
+                release.await();
+              } catch (InterruptedException ignored) {
+              }
+              return CompletableFuture.completedFuture(true);
+            },
+            v -> {},
+            callback::set,
+            () -> {}),
+        connection);
+    // held back without being read
+    connection.writable = false;
+    manager.batchUpdate();
+    callback.get().changed();
+    manager.completeUpdateBatch();
+
+    connection.writable = true;
+    try {
+      CompletableFuture.runAsync(() -> manager.flushPending(connection)).get(5, TimeUnit.SECONDS);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testReportedValueIsSentWithoutReadingIt() throws Exception {
+    AtomicInteger reads = new AtomicInteger();
+    AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+    manager.addSubscription(
+        1,
+        9,
+        new OnCharacteristic(
+            () -> CompletableFuture.completedFuture(reads.incrementAndGet() > 0),
+            v -> {},
+            callback::set,
+            () -> {}),
+        connection);
+
+    callback.get().changedTo(false);
+    assertThat(connection.values()).containsExactly(false);
+    assertThat(reads).hasValue(0);
+  }
+
+  @Test
+  public void testReportedValueOfWrongTypeIsReadInstead() throws Exception {
+    AtomicInteger reads = new AtomicInteger();
+    AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+    manager.addSubscription(
+        1,
+        9,
+        new OnCharacteristic(
+            () -> CompletableFuture.completedFuture(reads.incrementAndGet() > 0),
+            v -> {},
+            callback::set,
+            () -> {}),
+        connection);
+
+    callback.get().changedTo("off");
+    assertThat(connection.values()).containsExactly(true);
+    assertThat(reads).hasValue(1);
+  }
+
+  @Test
+  public void testReportedFloatIsRoundedAndClampedLikeARead() throws Exception {
+    double[] reported = {21.4999, 150};
+    for (int i = 0; i < reported.length; i++) {
+      double value = reported[i];
+      AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+      CurrentTemperatureCharacteristic characteristic =
+          new CurrentTemperatureCharacteristic(
+              () -> CompletableFuture.completedFuture(value), callback::set, () -> {});
+      manager.addSubscription(1, 10 + i, characteristic, connection);
+
+      callback.get().changedTo(value);
+      assertThat(connection.numbers().get(i)).isEqualTo(characteristic.getValue().get());
+    }
+    assertThat(connection.numbers()).containsExactly(21.5, 100.0);
+  }
+
+  @Test
+  public void testEventsAreHeldBackWhileNotWritable() throws Exception {
+    AtomicReference<HomekitCharacteristicChangeCallback> callback = new AtomicReference<>();
+    manager.addSubscription(1, 9, characteristic(callback), connection);
+
+    connection.writable = false;
+    callback.get().changedTo(true);
+    callback.get().changedTo(false);
+    callback.get().changedTo(true);
+    assertThat(connection.messages).isEmpty();
+    assertThat(manager.getDroppedEventCount()).isEqualTo(2);
+
+    connection.writable = true;
+    manager.flushPending(connection);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (connection.notificationCount() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(connection.values()).containsExactly(true);
+  }
+
+  private static OnCharacteristic characteristic(
+      AtomicReference<HomekitCharacteristicChangeCallback> callback) {
+    return new OnCharacteristic(
+        () -> CompletableFuture.completedFuture(true), v -> {}, callback::set, () -> {});
+  }
+
+  private static class RecordingConnection implements HomekitClientConnection {
+    final List<HttpResponse> messages = new ArrayList<>();
+    volatile boolean writable = true;
+
+    @Override
+    public boolean isWritable() {
+      return writable;
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> handleRequest(HttpRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void decryptRequest(ByteBuf frame, ByteBuf plaintext) {}
+
+    @Override
+    public void encryptResponse(ByteBuf plaintext, ByteBuf ciphertext) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public synchronized void outOfBand(HttpResponse message) {
+      messages.add(message);
+    }
+
+    synchronized List<Double> numbers() {
+      List<Double> numbers = new ArrayList<>();
+      for (HttpResponse message : messages) {
+        for (JsonObject characteristic :
+            read(message).getJsonArray("characteristics").getValuesAs(JsonObject.class)) {
+          numbers.add(characteristic.getJsonNumber("value").doubleValue());
+        }
+      }
+      return numbers;
+    }
+
+    synchronized List<Boolean> values() {
+      List<Boolean> values = new ArrayList<>();
+      for (HttpResponse message : messages) {
+        for (JsonObject characteristic :
+            read(message).getJsonArray("characteristics").getValuesAs(JsonObject.class)) {
+          values.add(characteristic.getBoolean("value"));
+        }
+      }
+      return values;
+    }
+
+    private static JsonObject read(HttpResponse message) {
+      ByteBuffer body = message.getBody().duplicate();
+      byte[] bytes = new byte[body.remaining()];
+      body.get(bytes);
+      try (JsonReader reader = Json.createReader(new ByteArrayInputStream(bytes))) {
+        return reader.readObject();
+      }
+    }
+
+    synchronized int notificationCount() {
+      int count = 0;
+      for (HttpResponse message : messages) {
+        count += read(message).getJsonArray("characteristics").size();
+      }
+      return count;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package io.github.hapjava.server.impl.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AeadProviderTest {
+
+  private static final int[] RECORD_LENGTHS = {1024, 0, 1, 15, 16, 17, 300, 1024};
+
+  private final AeadProvider bouncyCastle = new BouncyCastleAeadProvider();
+  private final AeadProvider jca = new JcaAeadProvider();
+  private final Random random = new Random(42);
+  private byte[] key;
+
+  @BeforeEach
+  public void setup() {
+    assumeTrue(JcaAeadProvider.isAvailable(), "JVM does not provide ChaCha20-Poly1305");
+    key = new byte[32];
+    random.nextBytes(key);
+  }
+
+  @Test
+  public void testSessionsProduceIdenticalRecords() throws Exception {
+    AeadSession bcWriter = bouncyCastle.newSession(key);
+    AeadSession jcaWriter = jca.newSession(key);
+    AeadSession bcReader = bouncyCastle.newSession(key);
+    AeadSession jcaReader = jca.newSession(key);
+
+    for (int length : RECORD_LENGTHS) {
+      byte[] plaintext = new byte[length];
+      random.nextBytes(plaintext);
+      byte[] additionalData = {(byte) length, (byte) (length >> 8)};
+
+      byte[] bcRecord = new byte[length + 16];
+      byte[] jcaRecord = new byte[length + 16];
+      bcWriter.seal(additionalData, plaintext, 0, length, bcRecord, 0);
+      jcaWriter.seal(additionalData, plaintext, 0, length, jcaRecord, 0);
+      assertThat(jcaRecord).isEqualTo(bcRecord);
+
+      // each backend must be able to open what the other sealed
+      byte[] bcOpened = new byte[length];
+      byte[] jcaOpened = new byte[length];
+      bcReader.open(additionalData, jcaRecord, 0, length, bcOpened, 0);
+      jcaReader.open(additionalData, bcRecord, 0, length, jcaOpened, 0);
+      assertThat(bcOpened).isEqualTo(plaintext);
+      assertThat(jcaOpened).isEqualTo(plaintext);
+    }
+  }
+
+  @Test
+  public void testSessionsSealInPlace() throws Exception {
+    byte[] plaintext = new byte[100];
+    random.nextBytes(plaintext);
+    byte[] bcRecord = Arrays.copyOf(plaintext, 120);
+    byte[] jcaRecord = Arrays.copyOf(plaintext, 120);
+
+    bouncyCastle.newSession(key).seal(null, bcRecord, 0, 100, bcRecord, 0);
+    jca.newSession(key).seal(null, jcaRecord, 0, 100, jcaRecord, 0);
+
+    assertThat(jcaRecord).isEqualTo(bcRecord);
+  }
+
+  @Test
+  public void testPairingMessagesAreIdentical() throws Exception {
+    byte[] nonce = "PV-Msg02".getBytes(StandardCharsets.UTF_8);
+    byte[] plaintext = new byte[150];
+    random.nextBytes(plaintext);
+
+    byte[] bcMessage = bouncyCastle.encrypt(key, nonce, plaintext);
+    byte[] jcaMessage = jca.encrypt(key, nonce, plaintext);
+    assertThat(jcaMessage).isEqualTo(bcMessage);
+
+    byte[] ciphertext = Arrays.copyOf(bcMessage, plaintext.length);
+    byte[] mac = Arrays.copyOfRange(bcMessage, plaintext.length, bcMessage.length);
+    assertThat(bouncyCastle.decrypt(key, nonce, mac, ciphertext)).isEqualTo(plaintext);
+    assertThat(jca.decrypt(key, nonce, mac, ciphertext)).isEqualTo(plaintext);
+  }
+
+  @Test
+  public void testTamperedRecordIsRejected() throws Exception {
+    byte[] record = new byte[32];
+    bouncyCastle.newSession(key).seal(null, new byte[16], 0, 16, record, 0);
+    record[3] ^= 1;
+
+    for (AeadProvider provider : new AeadProvider[] {bouncyCastle, jca}) {
+      AeadSession reader = provider.newSession(key);
+      assertThatThrownBy(() -> reader.open(null, record, 0, 16, new byte[16], 0))
+          .isInstanceOf(IOException.class);
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.github.hapjava.server.impl.json.EventResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BinaryHandlerTest {
+
+  private final FramingConnection connection = new FramingConnection();
+  private EmbeddedChannel channel;
+
+  @BeforeEach
+  public void setup() {
+    channel = new EmbeddedChannel(new BinaryHandler(connection));
+    // the first inbound frame switches the handler to encrypted output
+    ByteBuf frame = Unpooled.buffer();
+    frame.writeShortLE(1).writeByte('x').writeZero(16);
+    channel.writeInbound(frame);
+    ((ByteBuf) channel.readInbound()).release();
+  }
+
+  @Test
+  public void testWritesUntilFlushShareFrames() {
+    List<ChannelFuture> writes = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      writes.add(channel.write(Unpooled.copiedBuffer("event " + i, StandardCharsets.UTF_8)));
+    }
+    assertThat((Object) channel.readOutbound()).isNull();
+
+    channel.flush();
+    ByteBuf ciphertext = channel.readOutbound();
+    assertThat(connection.encryptions).isEqualTo(1);
+    assertThat(ciphertext.readableBytes()).isEqualTo(21 + HapFrameDecoder.FRAME_OVERHEAD);
+    assertThat((Object) channel.readOutbound()).isNull();
+    assertThat(writes).allMatch(ChannelFuture::isSuccess);
+    ciphertext.release();
+  }
+
+  @Test
+  public void testEventsFlushedInOneTickShareFrames() {
+    EmbeddedChannel upgraded = new EmbeddedChannel();
+    upgraded.pipeline().addLast(ServerInitializer.FLUSH_HANDLER_NAME, new ChannelDuplexHandler());
+    upgraded.pipeline().addLast(ServerInitializer.HTTP_HANDLER_NAME, new HapHttpCodec(1024));
+    ServerInitializer.upgrade(upgraded.pipeline(), connection);
+    ByteBuf frame = Unpooled.buffer();
+    frame.writeShortLE(0).writeZero(16);
+    upgraded.writeInbound(frame);
+
+    ChannelFuture first = upgraded.writeAndFlush(new EventResponse(ByteBuffer.wrap(new byte[10])));
+    ChannelFuture second = upgraded.writeAndFlush(new EventResponse(ByteBuffer.wrap(new byte[10])));
+    upgraded.runPendingTasks();
+
+    ByteBuf ciphertext = upgraded.readOutbound();
+    assertThat((Object) upgraded.readOutbound()).isNull();
+    assertThat(connection.encryptions).isEqualTo(1);
+    assertThat(connection.frameLengths).hasSize(1);
+    assertThat(first.isSuccess()).isTrue();
+    assertThat(second.isSuccess()).isTrue();
+    ciphertext.release();
+    upgraded.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testLargeWritesAreSplitIntoFullFrames() {
+    channel.write(Unpooled.wrappedBuffer(new byte[700]));
+    channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[700]));
+    ByteBuf ciphertext = channel.readOutbound();
+    assertThat(connection.frameLengths).containsExactly(0x400, 1400 - 0x400);
+    ciphertext.release();
+  }
+
+  @Test
+  public void testUnflushedWritesFailOnClose() {
+    ChannelFuture write = channel.write(Unpooled.wrappedBuffer(new byte[10]));
+    channel.close();
+    assertThat(write.isDone()).isTrue();
+    assertThat(write.isSuccess()).isFalse();
+  }
+
+  /** Frames like the real session, with an all-zero MAC instead of encryption. */
+  private static class FramingConnection implements HomekitClientConnection {
+    int encryptions;
+    final List<Integer> frameLengths = new ArrayList<>();
+
+    @Override
+    public CompletableFuture<HttpResponse> handleRequest(HttpRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void decryptRequest(ByteBuf frame, ByteBuf plaintext) {
+      int length = frame.readUnsignedShortLE();
+      plaintext.writeBytes(frame, length);
+      frame.skipBytes(16);
+    }
+
+    @Override
+    public void encryptResponse(ByteBuf plaintext, ByteBuf ciphertext) {
+      encryptions++;
+      while (plaintext.isReadable()) {
+        int length = Math.min(plaintext.readableBytes(), HapFrameDecoder.MAX_FRAME_LENGTH);
+        frameLengths.add(length);
+        ciphertext.writeShortLE(length).writeBytes(plaintext, length).writeZero(16);
+      }
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void outOfBand(HttpResponse message) {}
+  }
+}
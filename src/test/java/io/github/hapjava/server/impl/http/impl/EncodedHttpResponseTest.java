@@ -0,0 +1,60 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.github.hapjava.server.impl.json.EventResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class EncodedHttpResponseTest {
+
+  private static final byte[] BODY =
+      "{\"characteristics\":[{\"aid\":2,\"iid\":9,\"value\":true}]}"
+          .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testEncodedEventMatchesResponseEncoder() {
+    HttpResponse event = new EventResponse(BODY);
+    EncodedHttpResponse encoded = EncodedHttpResponse.encode(event);
+    try {
+      assertThat(bytes(write(encoded.retainedContent()))).isEqualTo(bytes(write(event)));
+    } finally {
+      encoded.release();
+    }
+  }
+
+  @Test
+  public void testDuplicatesOutliveTheSharedReference() {
+    EncodedHttpResponse encoded = EncodedHttpResponse.encode(new EventResponse(BODY));
+    ByteBuf first = encoded.retainedContent();
+    ByteBuf second = encoded.retainedContent();
+    encoded.release();
+
+    String message = first.toString(StandardCharsets.US_ASCII);
+    assertThat(message).startsWith("EVENT/1.0 200 OK\r\n").endsWith("\r\n\r\n" + new String(BODY));
+    first.skipBytes(first.readableBytes());
+    first.release();
+    assertThat(second.toString(StandardCharsets.US_ASCII)).isEqualTo(message);
+    assertThat(second.release()).isTrue();
+  }
+
+  private static ByteBuf write(Object msg) {
+    EmbeddedChannel channel = new EmbeddedChannel(new HapHttpCodec(1024));
+    channel.writeOutbound(msg);
+    ByteBuf out = channel.readOutbound();
+    assertThat((Object) channel.readOutbound()).isNull();
+    return out;
+  }
+
+  private static byte[] bytes(ByteBuf buf) {
+    try {
+      return ByteBufUtil.getBytes(buf);
+    } finally {
+      buf.release();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class HapFrameDecoderTest {
+
+  private final Random random = new Random(7);
+  private EmbeddedChannel channel;
+
+  @BeforeEach
+  public void setup() {
+    channel = new EmbeddedChannel(new HapFrameDecoder());
+  }
+
+  @Test
+  public void testSeveralFramesInOneRead() {
+    List<byte[]> frames = frames(3, 500, 0x400);
+    channel.writeInbound(Unpooled.wrappedBuffer(concat(frames)));
+    assertFrames(frames);
+  }
+
+  @Test
+  public void testFramesSplitAtEveryByte() {
+    List<byte[]> frames = frames(1, 0x400, 17);
+    for (byte b : concat(frames)) {
+      channel.writeInbound(Unpooled.wrappedBuffer(new byte[] {b}));
+    }
+    assertFrames(frames);
+  }
+
+  @Test
+  public void testFramesSplitAcrossLengthPrefix() {
+    List<byte[]> frames = frames(100, 200);
+    byte[] stream = concat(frames);
+    // the second frame's prefix starts at 118, so the split lands between its two length bytes
+    channel.writeInbound(Unpooled.wrappedBuffer(stream, 0, 119));
+    channel.writeInbound(Unpooled.wrappedBuffer(stream, 119, stream.length - 119));
+    assertFrames(frames);
+  }
+
+  @Test
+  public void testOversizedFrameIsRejected() {
+    ByteBuf in = Unpooled.buffer().writeShortLE(0x401).writeZero(100);
+    assertThatThrownBy(() -> channel.writeInbound(in)).isInstanceOf(TooLongFrameException.class);
+  }
+
+  private List<byte[]> frames(int... lengths) {
+    List<byte[]> frames = new ArrayList<>();
+    for (int length : lengths) {
+      byte[] frame = new byte[length + HapFrameDecoder.FRAME_OVERHEAD];
+      random.nextBytes(frame);
+      frame[0] = (byte) length;
+      frame[1] = (byte) (length >> 8);
+      frames.add(frame);
+    }
+    return frames;
+  }
+
+  private byte[] concat(List<byte[]> frames) {
+    ByteBuf stream = Unpooled.buffer();
+    frames.forEach(stream::writeBytes);
+    return ByteBufUtil.getBytes(stream);
+  }
+
+  private void assertFrames(List<byte[]> expected) {
+    for (byte[] frame : expected) {
+      ByteBuf decoded = channel.readInbound();
+      assertThat(ByteBufUtil.getBytes(decoded)).isEqualTo(frame);
+      decoded.release();
+    }
+    assertThat((Object) channel.readInbound()).isNull();
+    assertThat(channel.finish()).isFalse();
+  }
+}
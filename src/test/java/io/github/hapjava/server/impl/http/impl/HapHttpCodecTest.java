@@ -0,0 +1,76 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.hapjava.server.impl.http.HttpMethod;
+import io.github.hapjava.server.impl.json.EventResponse;
+import io.github.hapjava.server.impl.responses.NotFoundResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class HapHttpCodecTest {
+
+  private EmbeddedChannel channel;
+
+  @BeforeEach
+  public void setup() {
+    channel = new EmbeddedChannel(new HapHttpCodec(64));
+  }
+
+  @Test
+  public void testRequestsSplitAcrossReads() {
+    String requests =
+        "PUT /characteristics HTTP/1.1\r\nHost: bridge\r\ncontent-length: 5\r\n\r\n{\"a\"}"
+            + "GET /accessories HTTP/1.1\r\nHost: bridge\r\n\r\n";
+    for (byte b : requests.getBytes(StandardCharsets.US_ASCII)) {
+      channel.writeInbound(Unpooled.wrappedBuffer(new byte[] {b}));
+    }
+
+    HapHttpRequest put = channel.readInbound();
+    assertThat(put.getMethod()).isEqualTo(HttpMethod.PUT);
+    assertThat(put.getUri()).isEqualTo("/characteristics");
+    assertThat(new String(put.getBody(), StandardCharsets.US_ASCII)).isEqualTo("{\"a\"}");
+    put.release();
+
+    HapHttpRequest get = channel.readInbound();
+    assertThat(get.getMethod()).isEqualTo(HttpMethod.GET);
+    assertThat(get.getUri()).isEqualTo("/accessories");
+    assertThat(get.getBody()).isEmpty();
+    get.release();
+    assertThat((Object) channel.readInbound()).isNull();
+  }
+
+  @Test
+  public void testBodyLargerThanLimitIsRejected() {
+    ByteBuf request =
+        Unpooled.copiedBuffer(
+            "POST /pairings HTTP/1.1\r\nContent-Length: 65\r\n\r\n", StandardCharsets.US_ASCII);
+    assertThatThrownBy(() -> channel.writeInbound(request))
+        .isInstanceOf(TooLongFrameException.class);
+  }
+
+  @Test
+  public void testResponseIsWrittenInOneBuffer() {
+    channel.writeOutbound(new EventResponse("{}".getBytes(StandardCharsets.UTF_8)));
+    channel.writeOutbound(new NotFoundResponse());
+
+    assertResponse(
+        "EVENT/1.0 200 OK\r\nContent-type: application/hap+json\r\ncontent-length: 2\r\n"
+            + "connection: keep-alive\r\n\r\n{}");
+    assertResponse("HTTP/1.1 404 Not Found\r\ncontent-length: 0\r\nconnection: keep-alive\r\n\r\n");
+    assertThat((Object) channel.readOutbound()).isNull();
+  }
+
+  private void assertResponse(String expected) {
+    ByteBuf response = channel.readOutbound();
+    assertThat(response.toString(StandardCharsets.US_ASCII)).isEqualTo(expected);
+    assertThat(response.capacity()).isEqualTo(expected.length());
+    response.release();
+  }
+}
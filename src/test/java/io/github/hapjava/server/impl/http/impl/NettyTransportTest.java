@@ -0,0 +1,25 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.junit.jupiter.api.Test;
+
+public class NettyTransportTest {
+
+  @Test
+  public void testFallsBackToNioWithoutNativeTransport() throws Exception {
+    // netty-transport-native-epoll is not a dependency of the library
+    NettyTransport transport = NettyTransport.select(true);
+    assertThat(transport).isSameAs(NettyTransport.NIO);
+    assertThat(transport.serverChannelClass()).isEqualTo(NioServerSocketChannel.class);
+
+    EventLoopGroup group = transport.newEventLoopGroup(2);
+    try {
+      assertThat(group).hasSize(2);
+    } finally {
+      group.shutdownGracefully().sync();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class SerialExecutorTest {
+
+  @Test
+  public void testTasksRunOneAtATimeInOrder() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      SerialExecutor serial = new SerialExecutor(pool);
+      List<Integer> order = new ArrayList<>();
+      AtomicInteger running = new AtomicInteger();
+      AtomicInteger maxRunning = new AtomicInteger();
+      CountDownLatch done = new CountDownLatch(100);
+      for (int i = 0; i < 100; i++) {
+        int task = i;
+        serial.execute(
+            () -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              order.add(task);
+              running.decrementAndGet();
+              done.countDown();
+            });
+      }
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(maxRunning).hasValue(1);
+      assertThat(order).hasSize(100).isSorted();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testRejectedTaskDoesNotStallLaterTasks() {
+    AtomicInteger rejections = new AtomicInteger(1);
+    SerialExecutor serial =
+        new SerialExecutor(
+            task -> {
+              if (rejections.getAndDecrement() > 0) {
+                throw new RejectedExecutionException();
+              }
+              task.run();
+            });
+    AtomicInteger ran = new AtomicInteger();
+    assertThatThrownBy(() -> serial.execute(ran::incrementAndGet))
+        .isInstanceOf(RejectedExecutionException.class);
+
+    serial.execute(ran::incrementAndGet);
+    assertThat(ran).hasValue(1);
+  }
+
+  @Test
+  public void testTasksRejectedOnWorkerRunInOrder() {
+    List<Runnable> accepted = new ArrayList<>();
+    AtomicBoolean rejecting = new AtomicBoolean();
+    SerialExecutor serial =
+        new SerialExecutor(
+            task -> {
+              if (rejecting.get()) {
+                throw new RejectedExecutionException();
+              }
+              accepted.add(task);
+            });
+    List<String> order = new ArrayList<>();
+    serial.execute(() -> order.add("a"));
+    serial.execute(() -> order.add("b"));
+    serial.execute(() -> order.add("c"));
+
+    rejecting.set(true);
+    accepted.get(0).run();
+    assertThat(order).containsExactly("a", "b", "c");
+
+    // nothing is left active, so the next rejection goes to the caller again
+    assertThatThrownBy(() -> serial.execute(() -> order.add("d")))
+        .isInstanceOf(RejectedExecutionException.class);
+    assertThat(accepted).hasSize(1);
+  }
+}
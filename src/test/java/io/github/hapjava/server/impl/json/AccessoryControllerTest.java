@@ -0,0 +1,127 @@
+package io.github.hapjava.server.impl.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import io.github.hapjava.accessories.HomekitAccessory;
+import io.github.hapjava.accessories.SwitchAccessory;
+import io.github.hapjava.accessories.TemperatureSensorAccessory;
+import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.connections.SubscriptionManager;
+import io.github.hapjava.services.Service;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AccessoryControllerTest {
+
+  private final AtomicBoolean switchState = new AtomicBoolean(false);
+  private HomekitRegistry registry;
+  private AccessoryController controller;
+
+  @BeforeEach
+  public void setup() {
+    SwitchAccessory switchAccessory = accessory(SwitchAccessory.class, 2);
+    when(switchAccessory.getSwitchState())
+        .thenAnswer(i -> CompletableFuture.completedFuture(switchState.get()));
+    TemperatureSensorAccessory sensor = accessory(TemperatureSensorAccessory.class, 3);
+    when(sensor.getCurrentTemperature()).thenReturn(CompletableFuture.completedFuture(21.54));
+
+    registry = new HomekitRegistry("test", mock(SubscriptionManager.class));
+    registry.add(switchAccessory);
+    registry.add(sensor);
+    registry.reset();
+    controller = new AccessoryController(registry);
+  }
+
+  @Test
+  public void testListingMatchesCharacteristicJson() throws Exception {
+    JsonArray accessories = listing().getJsonArray("accessories");
+    assertThat(accessories).hasSize(2);
+
+    for (JsonValue accessoryValue : accessories) {
+      JsonObject accessory = (JsonObject) accessoryValue;
+      long aid = accessory.getJsonNumber("aid").longValue();
+      Map<Integer, Service> services = registry.getServices(aid);
+      Map<Integer, Characteristic> characteristics = registry.getCharacteristics(aid);
+      JsonArray jsonServices = accessory.getJsonArray("services");
+      assertThat(jsonServices).hasSize(services.size());
+
+      for (JsonValue serviceValue : jsonServices) {
+        JsonObject service = (JsonObject) serviceValue;
+        assertThat(services).containsKey(service.getInt("iid"));
+        for (JsonValue characteristicValue : service.getJsonArray("characteristics")) {
+          JsonObject characteristic = (JsonObject) characteristicValue;
+          int iid = characteristic.getInt("iid");
+          assertThat(characteristic).isEqualTo(characteristics.get(iid).toJson(iid).join());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testListingSplicesCurrentValues() throws Exception {
+    assertThat(switchValue(listing())).isEqualTo(JsonValue.FALSE);
+    switchState.set(true);
+    assertThat(switchValue(listing())).isEqualTo(JsonValue.TRUE);
+  }
+
+  @Test
+  public void testUnpublishedAccessoryIsNotListed() throws Exception {
+    SwitchAccessory added = accessory(SwitchAccessory.class, 4);
+    when(added.getSwitchState()).thenReturn(CompletableFuture.completedFuture(true));
+    registry.add(added);
+    assertThat(listing().getJsonArray("accessories")).hasSize(2);
+
+    registry.update(Collections.singleton(4L));
+    JsonArray accessories = listing().getJsonArray("accessories");
+    assertThat(accessories).hasSize(3);
+    assertThat(((JsonObject) accessories.get(2)).getJsonArray("services"))
+        .hasSize(registry.getServices(4).size());
+  }
+
+  private JsonValue switchValue(JsonObject listing) {
+    for (JsonValue accessory : listing.getJsonArray("accessories")) {
+      for (JsonValue service : ((JsonObject) accessory).getJsonArray("services")) {
+        for (JsonValue characteristic : ((JsonObject) service).getJsonArray("characteristics")) {
+          if ("25".equals(((JsonObject) characteristic).getString("type"))) {
+            return ((JsonObject) characteristic).get("value");
+          }
+        }
+      }
+    }
+    throw new AssertionError("No On characteristic in " + listing);
+  }
+
+  private JsonObject listing() throws Exception {
+    ByteBuffer body = controller.listing().join().getBody();
+    byte[] bytes = new byte[body.remaining()];
+    body.duplicate().get(bytes);
+    return Json.createReader(new ByteArrayInputStream(bytes)).readObject();
+  }
+
+  private static <T extends HomekitAccessory> T accessory(Class<T> type, long id) {
+    T accessory = mock(type, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+    when(accessory.getId()).thenReturn(id);
+    CompletableFuture<String> name = CompletableFuture.completedFuture("Accessory " + id);
+    when(accessory.getName()).thenReturn(name);
+    when(accessory.getManufacturer()).thenReturn(name);
+    when(accessory.getModel()).thenReturn(name);
+    when(accessory.getSerialNumber()).thenReturn(name);
+    when(accessory.getFirmwareRevision()).thenReturn(name);
+    return accessory;
+  }
+}
@@ -0,0 +1,271 @@
+package io.github.hapjava.server.impl.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import io.github.hapjava.accessories.GarageDoorOpenerAccessory;
+import io.github.hapjava.accessories.SwitchAccessory;
+import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.characteristics.impl.garagedoor.TargetDoorStateEnum;
+import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.connections.SubscriptionManager;
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CharacteristicsControllerTest {
+
+  private final Map<Long, SwitchAccessory> switches = new HashMap<>();
+  private HomekitRegistry registry;
+  private CharacteristicsController controller;
+  private CompletableFuture<Boolean> slowState;
+  private CompletableFuture<Boolean> failedState;
+
+  @BeforeEach
+  public void setup() {
+    slowState = new CompletableFuture<>();
+    failedState = new CompletableFuture<>();
+    failedState.completeExceptionally(new IllegalStateException("unreachable"));
+
+    registry = new HomekitRegistry("test", mock(SubscriptionManager.class));
+    switches.put(2L, switchAccessory(2, CompletableFuture.completedFuture(true)));
+    switches.put(3L, switchAccessory(3, slowState));
+    switches.put(4L, switchAccessory(4, failedState));
+    switches.values().forEach(registry::add);
+    registry.reset();
+    registry.setReadTimeout(Duration.ofMillis(100));
+    controller = new CharacteristicsController(registry, mock(SubscriptionManager.class));
+  }
+
+  @Test
+  public void testReadsValues() throws Exception {
+    HttpResponse response = get(2);
+
+    assertThat(response.getStatusCode()).isEqualTo(200);
+    JsonObject characteristic = characteristics(response).getJsonObject(0);
+    assertThat(characteristic.get("value")).isEqualTo(JsonValue.TRUE);
+    assertThat(characteristic.containsKey("status")).isFalse();
+  }
+
+  @Test
+  public void testReportsStatusPerCharacteristic() throws Exception {
+    HttpResponse response = get(2, 3, 4);
+
+    assertThat(response.getStatusCode()).isEqualTo(207);
+    JsonArray characteristics = characteristics(response);
+    assertThat(characteristics.getJsonObject(0).getInt("status")).isEqualTo(0);
+    assertThat(characteristics.getJsonObject(0).get("value")).isEqualTo(JsonValue.TRUE);
+    assertThat(characteristics.getJsonObject(1).getInt("status"))
+        .isEqualTo(HapStatus.OPERATION_TIMED_OUT.getCode());
+    assertThat(characteristics.getJsonObject(1).containsKey("value")).isFalse();
+    assertThat(characteristics.getJsonObject(2).getInt("status"))
+        .isEqualTo(HapStatus.SERVICE_COMMUNICATION_FAILURE.getCode());
+  }
+
+  @Test
+  public void testReportsUnknownCharacteristics() throws Exception {
+    HttpRequest request = mock(HttpRequest.class);
+    when(request.getUri()).thenReturn("/characteristics?id=2." + onIid(2) + ",2.999,9.1");
+    HttpResponse response = controller.get(request).join();
+
+    assertThat(response.getStatusCode()).isEqualTo(207);
+    JsonArray characteristics = characteristics(response);
+    assertThat(characteristics).hasSize(3);
+    assertThat(characteristics.getJsonObject(0).get("value")).isEqualTo(JsonValue.TRUE);
+    for (int i = 1; i < 3; i++) {
+      assertThat(characteristics.getJsonObject(i).getInt("status"))
+          .isEqualTo(HapStatus.RESOURCE_DOES_NOT_EXIST.getCode());
+      assertThat(characteristics.getJsonObject(i).containsKey("value")).isFalse();
+    }
+  }
+
+  @Test
+  public void testWritesWithoutFailuresHaveNoContent() throws Exception {
+    HttpResponse response = put("{\"aid\":2,\"iid\":" + onIid(2) + ",\"value\":false}");
+
+    assertThat(response.getStatusCode()).isEqualTo(204);
+    verify(switches.get(2L)).setSwitchState(false);
+  }
+
+  @Test
+  public void testReportsStatusPerWrite() throws Exception {
+    when(switches.get(3L).setSwitchState(anyBoolean())).thenThrow(new Exception("offline"));
+
+    HttpResponse response =
+        put(
+            "{\"aid\":2,\"iid\":999,\"value\":true}",
+            "{\"aid\":3,\"iid\":" + onIid(3) + ",\"value\":true}",
+            "{\"aid\":2,\"iid\":" + onIid(2) + ",\"value\":true}");
+
+    assertThat(response.getStatusCode()).isEqualTo(207);
+    JsonArray characteristics = characteristics(response);
+    assertThat(characteristics.getJsonObject(0).getInt("status"))
+        .isEqualTo(HapStatus.RESOURCE_DOES_NOT_EXIST.getCode());
+    assertThat(characteristics.getJsonObject(1).getInt("status"))
+        .isEqualTo(HapStatus.SERVICE_COMMUNICATION_FAILURE.getCode());
+    assertThat(characteristics.getJsonObject(2).getInt("status")).isEqualTo(0);
+    // the failures before it must not keep the last write from being applied
+    verify(switches.get(2L)).setSwitchState(true);
+  }
+
+  @Test
+  public void testRejectsEnumCodesThatAreNotValid() throws Exception {
+    GarageDoorOpenerAccessory door =
+        mock(GarageDoorOpenerAccessory.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+    when(door.getId()).thenReturn(5L);
+    registry.add(door);
+    registry.reset();
+    int targetIid = iid(5, "00000032-");
+
+    HttpResponse response =
+        put(
+            "{\"aid\":5,\"iid\":" + targetIid + ",\"value\":7}",
+            "{\"aid\":5,\"iid\":" + targetIid + ",\"value\":1}");
+
+    assertThat(response.getStatusCode()).isEqualTo(207);
+    JsonArray characteristics = characteristics(response);
+    assertThat(characteristics.getJsonObject(0).getInt("status"))
+        .isEqualTo(HapStatus.INVALID_VALUE.getCode());
+    assertThat(characteristics.getJsonObject(1).getInt("status")).isEqualTo(0);
+    verify(door).setTargetDoorState(TargetDoorStateEnum.CLOSED);
+    verify(door, never()).setTargetDoorState(TargetDoorStateEnum.OPEN);
+  }
+
+  @Test
+  public void testParallelWritesHaveDeadlines() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    CountDownLatch release = new CountDownLatch(1);
+    when(switches.get(3L).setSwitchState(anyBoolean()))
+        .thenAnswer(
+            i -> {
+              release.await();
+              return CompletableFuture.completedFuture(null);
+            });
+    registry.setWriteExecutor(executor);
+    registry.setWriteTimeout(Duration.ofMillis(100));
+    try {
+      HttpResponse response =
+          put(
+              "{\"aid\":3,\"iid\":" + onIid(3) + ",\"value\":true}",
+              "{\"aid\":2,\"iid\":" + onIid(2) + ",\"value\":true}");
+
+      JsonArray characteristics = characteristics(response);
+      assertThat(characteristics.getJsonObject(0).getInt("status"))
+          .isEqualTo(HapStatus.OPERATION_TIMED_OUT.getCode());
+      assertThat(characteristics.getJsonObject(1).getInt("status")).isEqualTo(0);
+      verify(switches.get(2L)).setSwitchState(true);
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testHungWriteDoesNotHoldBackEvents() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    CountDownLatch release = new CountDownLatch(1);
+    when(switches.get(3L).setSwitchState(anyBoolean()))
+        .thenAnswer(
+            i -> {
+              release.await();
+              return CompletableFuture.completedFuture(null);
+            });
+    registry.setWriteExecutor(executor);
+    SubscriptionManager subscriptions = mock(SubscriptionManager.class);
+    controller = new CharacteristicsController(registry, subscriptions);
+    try {
+      HttpRequest request = mock(HttpRequest.class);
+      when(request.getBody())
+          .thenReturn(
+              ("{\"characteristics\":[{\"aid\":3,\"iid\":" + onIid(3) + ",\"value\":true}]}")
+                  .getBytes(StandardCharsets.UTF_8));
+      CompletableFuture<HttpResponse> response =
+          controller.put(request, mock(HomekitClientConnection.class));
+
+      assertThat(response).isNotDone();
+      verify(subscriptions).completeUpdateBatch();
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  private HttpResponse put(String... writes) throws Exception {
+    String body = "{\"characteristics\":[" + String.join(",", writes) + "]}";
+    HttpRequest request = mock(HttpRequest.class);
+    when(request.getBody()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+    return controller.put(request, mock(HomekitClientConnection.class)).join();
+  }
+
+  /** Requests the On characteristic of each of the given accessories. */
+  private HttpResponse get(long... aids) throws Exception {
+    StringBuilder uri = new StringBuilder("/characteristics?id=");
+    for (long aid : aids) {
+      if (aid != aids[0]) {
+        uri.append(',');
+      }
+      uri.append(aid).append('.').append(onIid(aid));
+    }
+    HttpRequest request = mock(HttpRequest.class);
+    when(request.getUri()).thenReturn(uri.toString());
+    return controller.get(request).join();
+  }
+
+  private int onIid(long aid) {
+    return iid(aid, "00000025-");
+  }
+
+  private int iid(long aid, String typePrefix) {
+    for (Map.Entry<Integer, Characteristic> entry : registry.getCharacteristics(aid).entrySet()) {
+      if (entry.getValue().getType().startsWith(typePrefix)) {
+        return entry.getKey();
+      }
+    }
+    throw new AssertionError("No characteristic " + typePrefix + " on accessory " + aid);
+  }
+
+  private JsonArray characteristics(HttpResponse response) {
+    ByteBuffer body = response.getBody().duplicate();
+    byte[] bytes = new byte[body.remaining()];
+    body.get(bytes);
+    return Json.createReader(new ByteArrayInputStream(bytes))
+        .readObject()
+        .getJsonArray("characteristics");
+  }
+
+  private static SwitchAccessory switchAccessory(long id, CompletableFuture<Boolean> state) {
+    SwitchAccessory accessory =
+        mock(SwitchAccessory.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+    when(accessory.getId()).thenReturn(id);
+    CompletableFuture<String> name = CompletableFuture.completedFuture("Switch " + id);
+    when(accessory.getName()).thenReturn(name);
+    when(accessory.getSerialNumber()).thenReturn(name);
+    when(accessory.getModel()).thenReturn(name);
+    when(accessory.getManufacturer()).thenReturn(name);
+    when(accessory.getFirmwareRevision()).thenReturn(name);
+    when(accessory.getSwitchState()).thenReturn(state);
+    return accessory;
+  }
+}
@@ -0,0 +1,56 @@
+package io.github.hapjava.server.impl.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+public class HapJsonWriterTest {
+
+  @Test
+  public void testMatchesJavaxJson() throws Exception {
+    String text = "quote \" backslash \\ newline \n tab \t bell \u0007 umlaut ü emoji 😀";
+    HapJsonWriter writer = new HapJsonWriter(4);
+    writer.beginObject().name("characteristics").beginArray();
+    writer.beginObject();
+    writer.name("aid").value(Long.MAX_VALUE);
+    writer.name("iid").value(-12);
+    writer.name("value").value(21.5);
+    writer.endObject();
+    writer.beginObject();
+    writer.name("value").value(text);
+    writer.name("flag").value(true);
+    writer.name("none").nullValue();
+    writer.name("decimal").value(Json.createValue(new BigDecimal("1.25")));
+    writer.endObject();
+    writer.endArray().endObject();
+
+    JsonObject expected =
+        Json.createObjectBuilder()
+            .add(
+                "characteristics",
+                Json.createArrayBuilder()
+                    .add(
+                        Json.createObjectBuilder()
+                            .add("aid", Long.MAX_VALUE)
+                            .add("iid", -12)
+                            .add("value", 21.5))
+                    .add(
+                        Json.createObjectBuilder()
+                            .add("value", text)
+                            .add("flag", true)
+                            .addNull("none")
+                            .add("decimal", new BigDecimal("1.25"))))
+            .build();
+
+    JsonObject actual =
+        Json.createReader(new ByteArrayInputStream(writer.toByteArray())).readObject();
+    assertThat(actual).isEqualTo(expected);
+    JsonArray characteristics = actual.getJsonArray("characteristics");
+    assertThat(characteristics.getJsonObject(1).getString("value")).isEqualTo(text);
+  }
+}